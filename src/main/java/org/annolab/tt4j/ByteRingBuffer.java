@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.nio.charset.Charset;
+
+/**
+ * Keeps the last bytes of a byte stream, e.g. the most recent output of the TreeTagger process
+ * for error messages. Bytes are added in bulk by the thread consuming the stream, while a
+ * snapshot may be taken by any thread.
+ *
+ * @author Richard Eckart de Castilho
+ */
+class ByteRingBuffer
+{
+	private final byte[] _content;
+	private int _end = 0;
+	private long _total = 0;
+
+	/**
+	 * New ring buffer.
+	 *
+	 * @param aCapacity the maximal number of bytes retained.
+	 */
+	ByteRingBuffer(
+			final int aCapacity)
+	{
+		_content = new byte[aCapacity];
+	}
+
+	/**
+	 * Add bytes. If more bytes are added than the capacity of the buffer, the oldest bytes are
+	 * dropped.
+	 *
+	 * @param aBuffer the buffer containing the bytes.
+	 * @param aOffset the offset of the first byte to add.
+	 * @param aLength the number of bytes to add.
+	 */
+	synchronized
+	void add(
+			final byte[] aBuffer,
+			final int aOffset,
+			final int aLength)
+	{
+		int offset = aOffset;
+		int length = aLength;
+		if (length > _content.length) {
+			offset += length - _content.length;
+			length = _content.length;
+		}
+
+		int first = Math.min(length, _content.length - _end);
+		System.arraycopy(aBuffer, offset, _content, _end, first);
+		System.arraycopy(aBuffer, offset + first, _content, 0, length - first);
+		_end = (_end + length) % _content.length;
+		_total += aLength;
+	}
+
+	/**
+	 * Get the number of bytes currently retained.
+	 *
+	 * @return the number of bytes.
+	 */
+	synchronized
+	int size()
+	{
+		return (int) Math.min(_total, _content.length);
+	}
+
+	/**
+	 * Get the total number of bytes added so far.
+	 *
+	 * @return the number of bytes.
+	 */
+	synchronized
+	long getTotal()
+	{
+		return _total;
+	}
+
+	/**
+	 * Get the retained bytes, oldest first.
+	 *
+	 * @return a copy of the retained bytes.
+	 */
+	synchronized
+	byte[] toByteArray()
+	{
+		int size = size();
+		byte[] result = new byte[size];
+		int begin = (_end - size + _content.length) % _content.length;
+		int first = Math.min(size, _content.length - begin);
+		System.arraycopy(_content, begin, result, 0, first);
+		System.arraycopy(_content, 0, result, first, size - first);
+		return result;
+	}
+
+	/**
+	 * Decode the retained bytes.
+	 *
+	 * @param aCharset the encoding.
+	 * @return the decoded bytes.
+	 */
+	String toString(
+			final Charset aCharset)
+	{
+		return new String(toByteArray(), aCharset);
+	}
+}
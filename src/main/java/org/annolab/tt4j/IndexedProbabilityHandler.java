@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+/**
+ * An {@link IndexedTokenHandler} can implement this interface to get probability information
+ * when {@link TreeTaggerWrapper#setProbabilityThreshold(Double)} is used. Like the token, the
+ * candidates are delivered without creating objects for the tag, the lemma or the probability.
+ *
+ * @author Richard Eckart de Castilho
+ *
+ * @param <O> the token type.
+ */
+public
+interface IndexedProbabilityHandler<O>
+extends IndexedTokenHandler<O>
+{
+	/**
+	 * Process the probabilities for the last token provided to
+	 * {@link IndexedTokenHandler#token(Object, int, CharSequence)}. Called once for each
+	 * candidate, best candidate first.
+	 *
+	 * @param tag the index of the Part-of-Speech tag in the tagset of the model or -1 if the tag
+	 *     is not part of the tagset.
+	 * @param lemma the lemma as produced by TreeTagger. The character sequence is only valid
+	 *     during the call and is re-used afterwards - use {@link CharSequence#toString()} to keep
+	 *     it.
+	 * @param probability the probability of the tag/lemma.
+	 */
+	void probability(
+			int tag,
+			CharSequence lemma,
+			double probability);
+}
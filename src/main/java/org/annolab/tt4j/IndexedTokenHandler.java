@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+/**
+ * A {@link TokenHandler} can implement this interface to receive the Part-of-Speech tag as an
+ * index into the tagset of the model instead of as a string. The tagset is available from
+ * {@link TreeTaggerWrapper#getTagset()}. If the handler implements this interface,
+ * {@link #token(Object, int, CharSequence)} is called instead of
+ * {@link TokenHandler#token(Object, String, String)}.
+ *
+ * @author Richard Eckart de Castilho
+ *
+ * @param <O> the token type.
+ */
+public
+interface IndexedTokenHandler<O>
+extends TokenHandler<O>
+{
+	/**
+	 * Process a token that TreeTagger has analyzed.
+	 *
+	 * @param token the one of the token objects passed to
+	 *     {@link TreeTaggerWrapper#process(java.util.Collection)}
+	 * @param tag the index of the Part-of-Speech tag in the tagset of the model or -1 if the tag
+	 *     is not part of the tagset.
+	 * @param lemma the lemma as produced by TreeTagger. The character sequence is only valid
+	 *     during the call and is re-used afterwards - use {@link CharSequence#toString()} to keep
+	 *     it.
+	 */
+	void token(
+			O token,
+			int tag,
+			CharSequence lemma);
+}
@@ -0,0 +1,516 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index over the token dictionary of a model, e.g. to estimate the rate of unknown
+ * words in a text or to find the model that fits a text best. It answers membership and token id
+ * queries without allocating memory and without keeping the dictionary itself.
+ * <p>
+ * The index is a minimal perfect hash function: each token of the dictionary is mapped to its own
+ * slot and there are exactly as many slots as tokens. The function is represented by one integer
+ * for every four tokens. Each slot holds the token id and a few verification bytes derived from
+ * the hash of the token. A string not in the dictionary is mapped to some slot as well, so it is
+ * only rejected if its verification bytes differ. With the default of two verification bytes, a
+ * string not in the dictionary is wrongly accepted with a probability of 1/65536. In total the
+ * index uses about 7 bytes per token.
+ * <p>
+ * The index can be saved next to the model and loaded again by reading its arrays in bulk.
+ *
+ * @author Richard Eckart de Castilho
+ */
+public final
+class LexiconIndex
+{
+	/**
+	 * The default number of verification bytes per token.
+	 */
+	public static final int DEFAULT_VERIFICATION_BYTES = 2;
+
+	private static final int MAGIC = 0x5454344C; // "TT4L"
+	private static final int FORMAT_VERSION = 1;
+
+	// Average number of tokens per bucket
+	private static final int BUCKET_SIZE = 4;
+	private static final int MAX_SEED = 1 << 24;
+
+	private final long _seed;
+	private final int _verificationBytes;
+	private final int[] _displacements;
+	private final int[] _ids;
+	private final byte[] _verification;
+
+	private
+	LexiconIndex(
+			final long aSeed,
+			final int aVerificationBytes,
+			final int[] aDisplacements,
+			final int[] aIds,
+			final byte[] aVerification)
+	{
+		_seed = aSeed;
+		_verificationBytes = aVerificationBytes;
+		_displacements = aDisplacements;
+		_ids = aIds;
+		_verification = aVerification;
+	}
+
+	/**
+	 * Build an index over the token dictionary of a model.
+	 *
+	 * @param aModel the model. The dictionary must have been read.
+	 * @return the index.
+	 */
+	public static
+	LexiconIndex build(
+			final TreeTaggerModel aModel)
+	{
+		if (aModel.getTokens() == null) {
+			throw new IllegalArgumentException("The model has no token dictionary");
+		}
+		return build(aModel.getTokens(), DEFAULT_VERIFICATION_BYTES);
+	}
+
+	/**
+	 * Build an index over the given tokens. The id of a token is its position in the list. If a
+	 * token occurs more than once, the id of the first occurrence is used.
+	 *
+	 * @param aTokens the tokens.
+	 * @param aVerificationBytes the number of verification bytes per token (0 to 4). Without
+	 *        verification bytes, the index cannot reject strings not in the dictionary.
+	 * @return the index.
+	 */
+	public static
+	LexiconIndex build(
+			final List<String> aTokens,
+			final int aVerificationBytes)
+	{
+		if (aVerificationBytes < 0 || aVerificationBytes > 4) {
+			throw new IllegalArgumentException("Verification bytes must be between 0 and 4 but is "
+					+ aVerificationBytes);
+		}
+
+		// Different seeds yield different functions, so another seed helps if the hashes of two
+		// tokens collide or if no function is found for the current seed.
+		for (long seed = 0; seed < 16; seed++) {
+			LexiconIndex index = build(aTokens, aVerificationBytes, seed);
+			if (index != null) {
+				return index;
+			}
+		}
+		throw new IllegalStateException("Unable to build index");
+	}
+
+	/**
+	 * Get the id of a token.
+	 *
+	 * @param aToken the token.
+	 * @return the position of the token in the dictionary or {@code -1} if the token is not in
+	 *         the dictionary.
+	 */
+	public
+	int indexOf(
+			final CharSequence aToken)
+	{
+		if (_ids.length == 0) {
+			return -1;
+		}
+
+		long hash = hash(aToken, _seed);
+		int slot = slot(hash);
+		int v = (int) hash;
+		int offset = slot * _verificationBytes;
+		for (int i = 0; i < _verificationBytes; i++) {
+			if (_verification[offset + i] != (byte) (v >>> (8 * i))) {
+				return -1;
+			}
+		}
+		return _ids[slot];
+	}
+
+	/**
+	 * Check if a token is in the dictionary.
+	 *
+	 * @param aToken the token.
+	 * @return if the token is in the dictionary.
+	 */
+	public
+	boolean contains(
+			final CharSequence aToken)
+	{
+		return indexOf(aToken) != -1;
+	}
+
+	/**
+	 * Get the number of distinct tokens in the index.
+	 *
+	 * @return the number of tokens.
+	 */
+	public
+	int size()
+	{
+		return _ids.length;
+	}
+
+	/**
+	 * Get the number of verification bytes per token.
+	 *
+	 * @return the number of verification bytes.
+	 */
+	public
+	int getVerificationBytes()
+	{
+		return _verificationBytes;
+	}
+
+	/**
+	 * Save the index to a file, e.g. next to the model.
+	 *
+	 * @param aFile the file.
+	 * @throws IOException if the index cannot be written.
+	 */
+	public
+	void save(
+			final File aFile)
+	throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(aFile), 64 * 1024));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(_seed);
+			out.writeInt(_verificationBytes);
+			out.writeInt(_displacements.length);
+			out.writeInt(_ids.length);
+			for (int d : _displacements) {
+				out.writeInt(d);
+			}
+			for (int id : _ids) {
+				out.writeInt(id);
+			}
+			out.write(_verification);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load an index from a file.
+	 *
+	 * @param aFile the file.
+	 * @return the index.
+	 * @throws IOException if the index cannot be read or the file is not an index.
+	 */
+	public static
+	LexiconIndex load(
+			final File aFile)
+	throws IOException
+	{
+		long length = aFile.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(aFile), 64 * 1024));
+		try {
+			if (length < 28 || in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				throw new IOException("Not a lexicon index [" + aFile + "]");
+			}
+			long seed = in.readLong();
+			int verificationBytes = in.readInt();
+			int bucketCount = in.readInt();
+			int size = in.readInt();
+			if (verificationBytes < 0 || verificationBytes > 4 || bucketCount < 0 || size < 0
+					|| 28 + 4L * size + 4L * bucketCount + (long) verificationBytes * size
+							!= length) {
+				throw new IOException("Corrupt lexicon index [" + aFile + "]");
+			}
+
+			int[] displacements = readInts(in, bucketCount);
+			int[] ids = readInts(in, size);
+			byte[] verification = new byte[verificationBytes * size];
+			in.readFully(verification);
+
+			for (int d : displacements) {
+				if (d < -size) {
+					throw new IOException("Corrupt lexicon index [" + aFile + "]");
+				}
+			}
+
+			return new LexiconIndex(seed, verificationBytes, displacements, ids, verification);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static
+	int[] readInts(
+			final DataInputStream aIn,
+			final int aCount)
+	throws IOException
+	{
+		byte[] buffer = new byte[4 * aCount];
+		aIn.readFully(buffer);
+		int[] values = new int[aCount];
+		ByteBuffer.wrap(buffer).asIntBuffer().get(values);
+		return values;
+	}
+
+	/**
+	 * Build the index using the hash-and-displace method: the tokens are hashed into buckets and
+	 * for each bucket, starting with the largest one, a displacement is searched which maps all
+	 * tokens of the bucket to free slots. Buckets with a single token are simply assigned to one of
+	 * the remaining slots.
+	 *
+	 * @return the index or {@code null} if the index cannot be built using this seed.
+	 */
+	private static
+	LexiconIndex build(
+			final List<String> aTokens,
+			final int aVerificationBytes,
+			final long aSeed)
+	{
+		long[] hashes = new long[aTokens.size()];
+		int[] tokenIds = new int[aTokens.size()];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = hash(aTokens.get(i), aSeed);
+			tokenIds[i] = i;
+		}
+		int n = hashes.length;
+
+		long[] sorted = hashes.clone();
+		Arrays.sort(sorted);
+		for (int i = 1; i < sorted.length; i++) {
+			if (sorted[i] == sorted[i - 1]) {
+				n = dropDuplicates(aTokens, hashes, tokenIds);
+				if (n == -1) {
+					return null;
+				}
+				break;
+			}
+		}
+
+		int bucketCount = (n + BUCKET_SIZE - 1) / BUCKET_SIZE;
+
+		// Sort the tokens by bucket
+		int[] bucketStart = new int[bucketCount + 1];
+		for (int i = 0; i < n; i++) {
+			bucketStart[bucket(hashes[i], bucketCount) + 1]++;
+		}
+		for (int b = 0; b < bucketCount; b++) {
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		int[] fill = Arrays.copyOf(bucketStart, bucketCount);
+		int[] members = new int[n];
+		for (int i = 0; i < n; i++) {
+			members[fill[bucket(hashes[i], bucketCount)]++] = i;
+		}
+
+		// Sort the buckets by size, largest first
+		int maxSize = 0;
+		for (int b = 0; b < bucketCount; b++) {
+			maxSize = Math.max(maxSize, bucketStart[b + 1] - bucketStart[b]);
+		}
+		int[] sizeStart = new int[maxSize + 2];
+		for (int b = 0; b < bucketCount; b++) {
+			sizeStart[maxSize - (bucketStart[b + 1] - bucketStart[b]) + 1]++;
+		}
+		for (int s = 0; s <= maxSize; s++) {
+			sizeStart[s + 1] += sizeStart[s];
+		}
+		int[] order = new int[bucketCount];
+		for (int b = 0; b < bucketCount; b++) {
+			order[sizeStart[maxSize - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+		}
+
+		int[] displacements = new int[bucketCount];
+		int[] ids = new int[n];
+		byte[] verification = new byte[aVerificationBytes * n];
+		boolean[] taken = new boolean[n];
+		int[] slots = new int[maxSize];
+		int nextFree = 0;
+		for (int b : order) {
+			int start = bucketStart[b];
+			int size = bucketStart[b + 1] - start;
+			if (size == 0) {
+				break;
+			}
+
+			if (size == 1) {
+				while (taken[nextFree]) {
+					nextFree++;
+				}
+				slots[0] = nextFree;
+				displacements[b] = -nextFree - 1;
+			}
+			else {
+				int d = 0;
+				while (!place(hashes, members, start, size, d, n, taken, slots)) {
+					d++;
+					if (d == MAX_SEED) {
+						return null;
+					}
+				}
+				displacements[b] = d;
+			}
+
+			for (int i = 0; i < size; i++) {
+				int member = members[start + i];
+				int slot = slots[i];
+				taken[slot] = true;
+				ids[slot] = tokenIds[member];
+				int v = (int) hashes[member];
+				for (int j = 0; j < aVerificationBytes; j++) {
+					verification[slot * aVerificationBytes + j] = (byte) (v >>> (8 * j));
+				}
+			}
+		}
+
+		return new LexiconIndex(aSeed, aVerificationBytes, displacements, ids, verification);
+	}
+
+	/**
+	 * Remove duplicate tokens, keeping the first occurrence.
+	 *
+	 * @return the number of remaining tokens or {@code -1} if two different tokens have the same
+	 *         hash.
+	 */
+	private static
+	int dropDuplicates(
+			final List<String> aTokens,
+			final long[] aHashes,
+			final int[] aTokenIds)
+	{
+		Map<Long, Integer> first = new HashMap<Long, Integer>(aTokens.size() * 2);
+		int n = 0;
+		for (int i = 0; i < aHashes.length; i++) {
+			Integer other = first.get(aHashes[i]);
+			if (other != null) {
+				if (aTokens.get(i).equals(aTokens.get(other))) {
+					continue;
+				}
+				return -1;
+			}
+			first.put(aHashes[i], i);
+			aHashes[n] = aHashes[i];
+			aTokenIds[n] = i;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Try to map all tokens of a bucket to free slots using the given displacement.
+	 */
+	private static
+	boolean place(
+			final long[] aHashes,
+			final int[] aMembers,
+			final int aStart,
+			final int aSize,
+			final int aDisplacement,
+			final int aSlotCount,
+			final boolean[] aTaken,
+			final int[] aSlots)
+	{
+		for (int i = 0; i < aSize; i++) {
+			int slot = slot(aHashes[aMembers[aStart + i]], aDisplacement, aSlotCount);
+			if (aTaken[slot]) {
+				return false;
+			}
+			for (int j = 0; j < i; j++) {
+				if (aSlots[j] == slot) {
+					return false;
+				}
+			}
+			aSlots[i] = slot;
+		}
+		return true;
+	}
+
+	private
+	int slot(
+			final long aHash)
+	{
+		int d = _displacements[bucket(aHash, _displacements.length)];
+		return d < 0 ? -d - 1 : slot(aHash, d, _ids.length);
+	}
+
+	private static
+	int bucket(
+			final long aHash,
+			final int aBucketCount)
+	{
+		return (int) (((aHash >>> 32) * aBucketCount) >>> 32);
+	}
+
+	private static
+	int slot(
+			final long aHash,
+			final int aDisplacement,
+			final int aSlotCount)
+	{
+		long h = mix(aHash + aDisplacement * 0x9E3779B97F4A7C15L);
+		return (int) (((h >>> 32) * aSlotCount) >>> 32);
+	}
+
+	/**
+	 * Hash the characters of a token. The hash does not depend on the encoding of the model.
+	 */
+	private static
+	long hash(
+			final CharSequence aToken,
+			final long aSeed)
+	{
+		long h = 0xCBF29CE484222325L ^ mix(aSeed);
+		int length = aToken.length();
+		for (int i = 0; i < length; i++) {
+			h ^= aToken.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		return mix(h ^ length);
+	}
+
+	private static
+	long mix(
+			final long aValue)
+	{
+		long h = aValue;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
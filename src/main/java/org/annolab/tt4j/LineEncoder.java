@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes lines directly into a byte buffer which is written to the stream only when it is full
+ * or when the encoder is {@link #flush() flushed}. Characters that cannot be encoded are
+ * replaced, like an {@link java.io.OutputStreamWriter} does. Not thread-safe.
+ *
+ * @author Richard Eckart de Castilho
+ */
+class LineEncoder
+{
+	private final OutputStream _out;
+	private final CharsetEncoder _encoder;
+	private final ByteBuffer _buffer;
+	private final byte[] _lineSeparator;
+	private CharBuffer _chars = CharBuffer.allocate(256);
+
+	/**
+	 * New encoder.
+	 *
+	 * @param aOut the stream to write to.
+	 * @param aCharset the encoding.
+	 * @param aBufferSize the size of the byte buffer.
+	 */
+	LineEncoder(
+			final OutputStream aOut,
+			final Charset aCharset,
+			final int aBufferSize)
+	{
+		_out = aOut;
+		_encoder = aCharset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		_buffer = ByteBuffer.allocate(aBufferSize);
+		_lineSeparator = System.getProperty("line.separator").getBytes(aCharset);
+	}
+
+	/**
+	 * Encode a line followed by the line separator.
+	 *
+	 * @param aLine the line.
+	 * @throws IOException if the buffer is full and cannot be written.
+	 */
+	void write(
+			final String aLine)
+	throws IOException
+	{
+		final int length = aLine.length();
+		if (_chars.capacity() < length) {
+			_chars = CharBuffer.allocate(Math.max(length, _chars.capacity() * 2));
+		}
+		_chars.clear();
+		aLine.getChars(0, length, _chars.array(), 0);
+		_chars.limit(length);
+
+		_encoder.reset();
+		while (_encoder.encode(_chars, _buffer, true).isOverflow()) {
+			drain();
+		}
+		while (_encoder.flush(_buffer).isOverflow()) {
+			drain();
+		}
+
+		if (_buffer.remaining() < _lineSeparator.length) {
+			drain();
+		}
+		_buffer.put(_lineSeparator);
+	}
+
+	/**
+	 * Write all buffered lines and flush the stream.
+	 *
+	 * @throws IOException if the lines cannot be written.
+	 */
+	void flush()
+	throws IOException
+	{
+		drain();
+		_out.flush();
+	}
+
+	private
+	void drain()
+	throws IOException
+	{
+		if (_buffer.position() > 0) {
+			_out.write(_buffer.array(), 0, _buffer.position());
+			_buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+
+/**
+ * A read-only file mapped into memory. A single {@link ByteBuffer} can address at most 2 GB, so
+ * the file is mapped in segments of equal size. Values crossing a segment boundary are assembled
+ * from both segments. All accessors use absolute positions and may be called concurrently.
+ *
+ * @author Richard Eckart de Castilho
+ */
+final
+class MappedFile
+{
+	/**
+	 * Segments of 1 GB.
+	 */
+	static final int DEFAULT_SEGMENT_BITS = 30;
+
+	private final ByteBuffer[] _segments;
+	private final int _segmentBits;
+	private final int _segmentMask;
+	private final long _size;
+	private volatile ByteOrder _byteOrder = ByteOrder.BIG_ENDIAN;
+
+	/**
+	 * Map the given file.
+	 *
+	 * @param aFile the file.
+	 * @throws IOException if the file cannot be mapped.
+	 */
+	MappedFile(
+			final File aFile)
+	throws IOException
+	{
+		this(aFile, DEFAULT_SEGMENT_BITS);
+	}
+
+	/**
+	 * Map the given file using segments of {@code 2^aSegmentBits} bytes.
+	 *
+	 * @param aFile the file.
+	 * @param aSegmentBits the binary logarithm of the segment size.
+	 * @throws IOException if the file cannot be mapped.
+	 */
+	MappedFile(
+			final File aFile,
+			final int aSegmentBits)
+	throws IOException
+	{
+		if (aSegmentBits < 3 || aSegmentBits > 30) {
+			throw new IllegalArgumentException("Segment bits must be between 3 and 30 but is "
+					+ aSegmentBits);
+		}
+
+		_segmentBits = aSegmentBits;
+		_segmentMask = (1 << aSegmentBits) - 1;
+
+		RandomAccessFile raf = new RandomAccessFile(aFile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			_size = channel.size();
+			int count = (int) ((_size + _segmentMask) >>> _segmentBits);
+			_segments = new ByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = ((long) i) << _segmentBits;
+				long length = Math.min(_size - start, 1L << _segmentBits);
+				_segments[i] = channel.map(MapMode.READ_ONLY, start, length);
+			}
+		}
+		finally {
+			// The mapping remains valid after the channel has been closed.
+			Util.close(raf);
+		}
+	}
+
+	/**
+	 * Get the size of the file.
+	 *
+	 * @return the size in bytes.
+	 */
+	long size()
+	{
+		return _size;
+	}
+
+	/**
+	 * Set the byte order used by {@link #getInt(long)}.
+	 *
+	 * @param aByteOrder the byte order.
+	 */
+	void setByteOrder(
+			final ByteOrder aByteOrder)
+	{
+		_byteOrder = aByteOrder;
+	}
+
+	/**
+	 * Get the byte order used by {@link #getInt(long)}.
+	 *
+	 * @return the byte order.
+	 */
+	ByteOrder getByteOrder()
+	{
+		return _byteOrder;
+	}
+
+	/**
+	 * Get the byte at the given position.
+	 *
+	 * @param aPosition the position.
+	 * @return the byte.
+	 * @throws IOException if the position is beyond the end of the file.
+	 */
+	byte get(
+			final long aPosition)
+	throws IOException
+	{
+		check(aPosition, 1);
+		return _segments[(int) (aPosition >>> _segmentBits)].get((int) (aPosition & _segmentMask));
+	}
+
+	/**
+	 * Get the integer at the given position.
+	 *
+	 * @param aPosition the position.
+	 * @return the integer.
+	 * @throws IOException if the integer extends beyond the end of the file.
+	 */
+	int getInt(
+			final long aPosition)
+	throws IOException
+	{
+		check(aPosition, 4);
+		int offset = (int) (aPosition & _segmentMask);
+		ByteBuffer segment = _segments[(int) (aPosition >>> _segmentBits)];
+		int value;
+		if (offset + 4 <= segment.limit()) {
+			value = segment.getInt(offset);
+		}
+		else {
+			value = 0;
+			for (int i = 0; i < 4; i++) {
+				value = (value << 8) | (get(aPosition + i) & 0xFF);
+			}
+		}
+		// Mapped buffers are big-endian
+		return _byteOrder == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value);
+	}
+
+	/**
+	 * Get the long integer at the given position.
+	 *
+	 * @param aPosition the position.
+	 * @return the long integer.
+	 * @throws IOException if the long integer extends beyond the end of the file.
+	 */
+	long getLong(
+			final long aPosition)
+	throws IOException
+	{
+		long first = getInt(aPosition) & 0xFFFFFFFFL;
+		long second = getInt(aPosition + 4) & 0xFFFFFFFFL;
+		return _byteOrder == ByteOrder.BIG_ENDIAN ? (first << 32) | second : (second << 32) | first;
+	}
+
+	/**
+	 * Find the next occurrence of the given byte.
+	 *
+	 * @param aValue the byte.
+	 * @param aFrom the position to start searching at.
+	 * @return the position of the byte.
+	 * @throws IOException if the byte does not occur before the end of the file.
+	 */
+	long indexOf(
+			final byte aValue,
+			final long aFrom)
+	throws IOException
+	{
+		long position = aFrom;
+		while (position < _size) {
+			ByteBuffer segment = _segments[(int) (position >>> _segmentBits)];
+			int limit = segment.limit();
+			for (int i = (int) (position & _segmentMask); i < limit; i++) {
+				if (segment.get(i) == aValue) {
+					return (position & ~((long) _segmentMask)) + i;
+				}
+			}
+			position = (position & ~((long) _segmentMask)) + limit;
+		}
+		throw new IOException("Unexpected end of file.");
+	}
+
+	/**
+	 * Decode the bytes in the given range.
+	 *
+	 * @param aStart the position of the first byte.
+	 * @param aEnd the position after the last byte.
+	 * @param aCharset the encoding.
+	 * @return the decoded string.
+	 * @throws IOException if the range extends beyond the end of the file.
+	 */
+	String getString(
+			final long aStart,
+			final long aEnd,
+			final Charset aCharset)
+	throws IOException
+	{
+		byte[] bytes = new byte[(int) (aEnd - aStart)];
+		get(aStart, bytes, 0, bytes.length);
+		return new String(bytes, aCharset);
+	}
+
+	/**
+	 * Copy the bytes starting at the given position into an array.
+	 *
+	 * @param aPosition the position of the first byte.
+	 * @param aBuffer the target array.
+	 * @param aOffset the offset in the target array.
+	 * @param aLength the number of bytes to copy.
+	 * @throws IOException if the range extends beyond the end of the file.
+	 */
+	void get(
+			final long aPosition,
+			final byte[] aBuffer,
+			final int aOffset,
+			final int aLength)
+	throws IOException
+	{
+		check(aPosition, aLength);
+		int done = 0;
+		while (done < aLength) {
+			long position = aPosition + done;
+			ByteBuffer segment = _segments[(int) (position >>> _segmentBits)].duplicate();
+			int offset = (int) (position & _segmentMask);
+			int n = Math.min(aLength - done, segment.limit() - offset);
+			segment.position(offset);
+			segment.get(aBuffer, aOffset + done, n);
+			done += n;
+		}
+	}
+
+	private
+	void check(
+			final long aPosition,
+			final long aLength)
+	throws IOException
+	{
+		if (aPosition < 0 || aPosition + aLength > _size) {
+			throw new IOException("Unexpected end of file.");
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A TreeTagger model backed by a {@link MappedFile}. The dictionaries are not decoded when the
+ * model is read. Instead the positions of the strings are determined when a dictionary is first
+ * accessed and each string is decoded only when it is retrieved. Locating the token dictionary
+ * requires scanning the lemma dictionary, so if only the tags are accessed, the dictionaries are
+ * not touched at all.
+ * <p>
+ * Errors in the dictionaries, e.g. because the file is truncated, are only detected when they
+ * are accessed and are reported as {@link UncheckedIOException}.
+ *
+ * @author Richard Eckart de Castilho
+ * @see TreeTaggerModelReader#read(java.io.File)
+ */
+class MappedTreeTaggerModel
+extends TreeTaggerModel
+{
+	private final MappedFile _file;
+	private final Charset _charset;
+	private final MappedStringList _lemmas;
+	private boolean _tokensLocated = false;
+
+	/**
+	 * New mapped model.
+	 *
+	 * @param aFile the model file.
+	 * @param aCharset the encoding of the dictionaries.
+	 * @param aLemmaSection the position of the lemma dictionary.
+	 * @throws IOException if the size of the lemma dictionary cannot be read.
+	 */
+	MappedTreeTaggerModel(
+			final MappedFile aFile,
+			final Charset aCharset,
+			final long aLemmaSection)
+	throws IOException
+	{
+		_file = aFile;
+		_charset = aCharset;
+		_lemmas = new MappedStringList(aFile, aCharset, aLemmaSection + 4,
+				aFile.getInt(aLemmaSection), false);
+		setLemmas(_lemmas);
+	}
+
+	@Override
+	public synchronized
+	List<String> getTokens()
+	{
+		if (!_tokensLocated) {
+			_tokensLocated = true;
+			try {
+				setTokens(locateTokens(_lemmas.getEnd()));
+			}
+			catch (final IOException e) {
+				_tokensLocated = false;
+				throw new UncheckedIOException(e);
+			}
+		}
+		return super.getTokens();
+	}
+
+	@Override
+	public synchronized
+	void setTokens(
+			final List<String> aTokens)
+	{
+		_tokensLocated = true;
+		super.setTokens(aTokens);
+	}
+
+	/**
+	 * Skip the blocks between the lemma and the token dictionary. The layout is the same as
+	 * in {@link TreeTaggerModelReader#read(java.io.InputStream)}, but the opaque blocks are
+	 * skipped by computing their size instead of reading them.
+	 */
+	private
+	MappedStringList locateTokens(
+			final long aPosition)
+	throws IOException
+	{
+		long pos = aPosition;
+		int tokenSize = _file.getInt(pos);
+		pos += 4;
+		pos += 4; // Marker 0xFFFFFFFE
+		pos += 1; // End of block
+
+		int c1 = _file.getInt(pos); // Block size
+		pos += 4 + 12L * c1;
+		pos += 4; // Unknown
+		pos += 1; // End of block
+
+		int c2 = _file.getInt(pos); // Block size
+		pos += 4;
+		pos += 4; // Unknown
+		pos += 3 * 4L * c2;
+
+		return new MappedStringList(_file, _charset, pos, tokenSize, true);
+	}
+
+	/**
+	 * A list of zero-terminated strings in a mapped file. The start positions of the strings are
+	 * located when a string is first retrieved. This costs one pass over the bytes of the
+	 * dictionary and 8 bytes per string.
+	 */
+	static final
+	class MappedStringList
+	extends AbstractList<String>
+	implements RandomAccess
+	{
+		private final MappedFile file;
+		private final Charset charset;
+		private final long start;
+		private final int count;
+		private final boolean tokenData;
+
+		private volatile long[] offsets;
+		private long end;
+
+		/**
+		 * New list.
+		 *
+		 * @param aFile the file.
+		 * @param aCharset the encoding.
+		 * @param aStart the position of the first string.
+		 * @param aCount the number of strings.
+		 * @param aTokenData whether each string is followed by a block of token data.
+		 */
+		MappedStringList(
+				final MappedFile aFile,
+				final Charset aCharset,
+				final long aStart,
+				final int aCount,
+				final boolean aTokenData)
+		{
+			if (aCount < 0) {
+				throw new IllegalArgumentException("Illegal dictionary size " + aCount);
+			}
+
+			file = aFile;
+			charset = aCharset;
+			start = aStart;
+			count = aCount;
+			tokenData = aTokenData;
+		}
+
+		@Override
+		public
+		String get(
+				final int aIndex)
+		{
+			if (aIndex < 0 || aIndex >= count) {
+				throw new IndexOutOfBoundsException("Index: " + aIndex + ", Size: " + count);
+			}
+
+			try {
+				long s = index()[aIndex];
+				return file.getString(s, file.indexOf((byte) 0, s), charset);
+			}
+			catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public
+		int size()
+		{
+			return count;
+		}
+
+		/**
+		 * Get the position after the last string of the list.
+		 *
+		 * @return the position.
+		 * @throws IOException if the strings cannot be located.
+		 */
+		long getEnd()
+		throws IOException
+		{
+			index();
+			return end;
+		}
+
+		private
+		long[] index()
+		throws IOException
+		{
+			long[] result = offsets;
+			if (result == null) {
+				synchronized (this) {
+					result = offsets;
+					if (result == null) {
+						result = new long[count];
+						long pos = start;
+						for (int i = 0; i < count; i++) {
+							result[i] = pos;
+							pos = file.indexOf((byte) 0, pos) + 1;
+							if (tokenData) {
+								int blockSize = file.getInt(pos);
+								pos += 8 + 12L * blockSize;
+							}
+						}
+						end = pos;
+						offsets = result;
+					}
+				}
+			}
+			return result;
+		}
+	}
+}
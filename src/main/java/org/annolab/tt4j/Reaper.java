@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs a clean-up action once an object has become unreachable. This is a safety net for
+ * objects which hold external resources, e.g. TreeTagger processes, but which are not closed
+ * explicitly. Unlike a finalizer, the action runs on a dedicated daemon thread and it cannot
+ * resurrect the object. The action must therefore not refer to the object itself.
+ *
+ * @author Richard Eckart de Castilho
+ */
+final
+class Reaper
+{
+	private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+
+	// Keeps the references reachable until they have been processed.
+	private static final Set<Cleanable> REGISTERED = Collections.newSetFromMap(
+			new ConcurrentHashMap<Cleanable, Boolean>());
+
+	static {
+		Thread thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				while (true) {
+					try {
+						((Cleanable) QUEUE.remove()).clean();
+					}
+					catch (final InterruptedException e) {
+						// Keep going, the thread ends with the JVM
+					}
+					catch (final Throwable e) {
+						if (TreeTaggerWrapper.TRACE) {
+							System.err.println("[Reaper|TRACE] Clean-up failed: " + e);
+						}
+					}
+				}
+			}
+		});
+		thread.setName("TT4J Reaper");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private
+	Reaper()
+	{
+		// No instances
+	}
+
+	/**
+	 * Register an action to run when the given object becomes phantom reachable.
+	 *
+	 * @param aReferent the object to watch.
+	 * @param aAction the clean-up action. It must not refer to the referent.
+	 * @return a handle which can be used to run the action earlier.
+	 */
+	static
+	Cleanable register(
+			final Object aReferent,
+			final Runnable aAction)
+	{
+		Cleanable cleanable = new Cleanable(aReferent, aAction);
+		REGISTERED.add(cleanable);
+		return cleanable;
+	}
+
+	/**
+	 * A registered clean-up action.
+	 */
+	static final
+	class Cleanable
+	extends PhantomReference<Object>
+	{
+		private final Runnable action;
+
+		private
+		Cleanable(
+				final Object aReferent,
+				final Runnable aAction)
+		{
+			super(aReferent, QUEUE);
+			action = aAction;
+		}
+
+		/**
+		 * Unregister and run the action, unless this has already happened.
+		 */
+		void clean()
+		{
+			if (REGISTERED.remove(this)) {
+				clear();
+				action.run();
+			}
+		}
+	}
+}
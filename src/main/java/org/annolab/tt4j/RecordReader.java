@@ -0,0 +1,431 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads the records produced by TreeTagger directly from the raw bytes of its output. Records
+ * are located by scanning for line breaks in a reusable buffer. The fields of a record are
+ * addressed by byte offsets into that buffer and are decoded only if needed. Part-of-Speech tags
+ * are resolved to canonical instances via a {@link TagTable}.
+ * <p>
+ * This class is not thread-safe. It is used only by the thread reading the TreeTagger output.
+ * The offsets and the character sequences returned by {@link #decode(int, int)} are only valid
+ * until the next call to {@link #next()}.
+ *
+ * @author Richard Eckart de Castilho
+ */
+class RecordReader
+{
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+			1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final InputStream _in;
+	private final Charset _charset;
+	private final CharsetDecoder _decoder;
+	private final TagTable _tags;
+	private final ByteRingBuffer _history;
+
+	private byte[] _buffer = new byte[8192];
+	private ByteBuffer _byteView = ByteBuffer.wrap(_buffer);
+	private CharBuffer _charView = CharBuffer.allocate(256);
+
+	// Start of the data not consumed yet
+	private int _pos = 0;
+	// End of the data in the buffer
+	private int _limit = 0;
+	// Offset up to which the data has been searched for a line break
+	private int _scan = 0;
+
+	// Current record, trimmed
+	private int _start = 0;
+	private int _end = 0;
+
+	/**
+	 * New reader.
+	 *
+	 * @param aIn the stream to read from.
+	 * @param aCharset the encoding of the stream.
+	 * @param aTags the table used to resolve tags.
+	 * @param aHistory receives a copy of all bytes read. May be {@code null}.
+	 */
+	RecordReader(
+			final InputStream aIn,
+			final Charset aCharset,
+			final TagTable aTags,
+			final ByteRingBuffer aHistory)
+	{
+		_in = aIn;
+		_charset = aCharset;
+		_decoder = aCharset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		_tags = aTags;
+		_history = aHistory;
+	}
+
+	/**
+	 * Advance to the next record. Blocks until a complete record is available.
+	 *
+	 * @return {@code false} if the end of the stream has been reached.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	boolean next()
+	throws IOException
+	{
+		while (true) {
+			int nl = indexOf((byte) '\n', _scan, _limit);
+			if (nl >= 0) {
+				setRecord(_pos, nl);
+				_pos = nl + 1;
+				_scan = _pos;
+				return true;
+			}
+			_scan = _limit;
+
+			if (!fill()) {
+				if (_pos < _limit) {
+					// Last record without a line break
+					setRecord(_pos, _limit);
+					_pos = _limit;
+					_scan = _limit;
+					return true;
+				}
+				return false;
+			}
+		}
+	}
+
+	private
+	boolean fill()
+	throws IOException
+	{
+		// Move the incomplete record to the start of the buffer and grow the buffer if the record
+		// does not leave room for more data.
+		if (_pos > 0) {
+			System.arraycopy(_buffer, _pos, _buffer, 0, _limit - _pos);
+			_limit -= _pos;
+			_scan -= _pos;
+			_pos = 0;
+		}
+		if (_limit == _buffer.length) {
+			byte[] buffer = new byte[_buffer.length * 2];
+			System.arraycopy(_buffer, 0, buffer, 0, _limit);
+			_buffer = buffer;
+			_byteView = ByteBuffer.wrap(_buffer);
+		}
+
+		int n = _in.read(_buffer, _limit, _buffer.length - _limit);
+		if (n < 0) {
+			return false;
+		}
+
+		if (_history != null) {
+			_history.add(_buffer, _limit, n);
+		}
+		_limit += n;
+		return true;
+	}
+
+	private
+	void setRecord(
+			final int aFrom,
+			final int aTo)
+	{
+		_start = trimStart(aFrom, aTo);
+		_end = trimEnd(_start, aTo);
+	}
+
+	/**
+	 * Get the buffer containing the current record.
+	 *
+	 * @return the buffer.
+	 */
+	byte[] buffer()
+	{
+		return _buffer;
+	}
+
+	/**
+	 * Get the offset of the first byte of the current record.
+	 *
+	 * @return the offset.
+	 */
+	int start()
+	{
+		return _start;
+	}
+
+	/**
+	 * Get the offset after the last byte of the current record.
+	 *
+	 * @return the offset.
+	 */
+	int end()
+	{
+		return _end;
+	}
+
+	/**
+	 * Find a byte in the buffer.
+	 *
+	 * @param aByte the byte to look for.
+	 * @param aFrom the offset to start at.
+	 * @param aTo the offset to stop at.
+	 * @return the offset of the byte or -1 if it was not found.
+	 */
+	int indexOf(
+			final byte aByte,
+			final int aFrom,
+			final int aTo)
+	{
+		final byte[] buffer = _buffer;
+		for (int i = aFrom; i < aTo; i++) {
+			if (buffer[i] == aByte) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Skip leading white space and control characters like {@link String#trim()} does.
+	 *
+	 * @param aFrom the offset to start at.
+	 * @param aTo the offset to stop at.
+	 * @return the offset of the first byte that is not white space.
+	 */
+	int trimStart(
+			final int aFrom,
+			final int aTo)
+	{
+		int i = aFrom;
+		while (i < aTo && (_buffer[i] & 0xFF) <= ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Skip trailing white space and control characters like {@link String#trim()} does.
+	 *
+	 * @param aFrom the offset to stop at.
+	 * @param aTo the offset after the last byte.
+	 * @return the offset after the last byte that is not white space.
+	 */
+	int trimEnd(
+			final int aFrom,
+			final int aTo)
+	{
+		int i = aTo;
+		while (i > aFrom && (_buffer[i - 1] & 0xFF) <= ' ') {
+			i--;
+		}
+		return i;
+	}
+
+	/**
+	 * Check if the current record consists exactly of the given bytes.
+	 *
+	 * @param aBytes the bytes.
+	 * @return whether the record matches.
+	 */
+	boolean is(
+			final byte[] aBytes)
+	{
+		return _end - _start == aBytes.length && startsWith(aBytes);
+	}
+
+	/**
+	 * Check if the current record starts with the given bytes.
+	 *
+	 * @param aBytes the bytes.
+	 * @return whether the record matches.
+	 */
+	boolean startsWith(
+			final byte[] aBytes)
+	{
+		if (_end - _start < aBytes.length) {
+			return false;
+		}
+		for (int i = 0; i < aBytes.length; i++) {
+			if (_buffer[_start + i] != aBytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decode a range of the buffer without creating a new object. The returned sequence is
+	 * overwritten by the next call.
+	 *
+	 * @param aFrom the offset of the first byte.
+	 * @param aTo the offset after the last byte.
+	 * @return the decoded characters.
+	 */
+	CharSequence decode(
+			final int aFrom,
+			final int aTo)
+	{
+		while (true) {
+			_byteView.limit(aTo);
+			_byteView.position(aFrom);
+			_charView.clear();
+			_decoder.reset();
+			CoderResult result = _decoder.decode(_byteView, _charView, true);
+			if (!result.isOverflow()) {
+				result = _decoder.flush(_charView);
+			}
+			if (result.isOverflow()) {
+				_charView = CharBuffer.allocate(_charView.capacity() * 2);
+				continue;
+			}
+			_charView.flip();
+			return _charView;
+		}
+	}
+
+	/**
+	 * Decode a range of the buffer into a new string.
+	 *
+	 * @param aFrom the offset of the first byte.
+	 * @param aTo the offset after the last byte.
+	 * @return the decoded string.
+	 */
+	String getString(
+			final int aFrom,
+			final int aTo)
+	{
+		return new String(_buffer, aFrom, aTo - aFrom, _charset);
+	}
+
+	/**
+	 * Decode the current record into a new string, e.g. for error messages.
+	 *
+	 * @return the current record.
+	 */
+	String getRecord()
+	{
+		return getString(_start, _end);
+	}
+
+	/**
+	 * Parse a decimal number from a range of the buffer without creating intermediate objects.
+	 * The numbers printed by TreeTagger, e.g. {@literal 0.999661}, are converted directly. Other
+	 * numbers, e.g. with many significant digits or with an exponent, are passed on to
+	 * {@link Double#parseDouble(String)}.
+	 *
+	 * @param aFrom the offset of the first byte.
+	 * @param aTo the offset after the last byte.
+	 * @return the number.
+	 * @throws NumberFormatException if the range does not contain a number.
+	 */
+	double parseDouble(
+			final int aFrom,
+			final int aTo)
+	{
+		final byte[] buffer = _buffer;
+		int i = aFrom;
+		boolean negative = false;
+		if (i < aTo && (buffer[i] == '-' || buffer[i] == '+')) {
+			negative = buffer[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean point = false;
+		for (; i < aTo; i++) {
+			byte b = buffer[i];
+			if (b >= '0' && b <= '9') {
+				if (mantissa != 0 || b != '0') {
+					digits++;
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (point) {
+					fractionDigits++;
+				}
+			}
+			else if (b == '.' && !point) {
+				point = true;
+			}
+			else {
+				break;
+			}
+		}
+
+		// Mantissa and power of ten are represented exactly as doubles, so the division is
+		// correctly rounded. Everything else goes the slow way.
+		if (i < aTo || digits > 15 || fractionDigits >= POWERS_OF_TEN.length
+				|| (i == aFrom + (negative ? 1 : 0) + (point ? 1 : 0))) {
+			return Double.parseDouble(getString(aFrom, aTo));
+		}
+
+		double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Get the index of the tag in the given range of the buffer.
+	 *
+	 * @param aFrom the offset of the first byte.
+	 * @param aTo the offset after the last byte.
+	 * @return the tag index.
+	 */
+	int getTagIndex(
+			final int aFrom,
+			final int aTo)
+	{
+		return _tags.lookup(_buffer, aFrom, aTo);
+	}
+
+	/**
+	 * Get the canonical instance of the tag in the given range of the buffer.
+	 *
+	 * @param aFrom the offset of the first byte.
+	 * @param aTo the offset after the last byte.
+	 * @return the tag.
+	 */
+	String getTag(
+			final int aFrom,
+			final int aTo)
+	{
+		return _tags.getTag(_tags.lookup(_buffer, aFrom, aTo));
+	}
+
+	/**
+	 * Get the table used to resolve tags.
+	 *
+	 * @return the tag table.
+	 */
+	TagTable getTagTable()
+	{
+		return _tags;
+	}
+}
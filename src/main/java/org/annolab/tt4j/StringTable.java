@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A compact, immutable list of strings. All strings are stored encoded in a single byte array
+ * and are located using an offset table, so an entry costs only its encoded bytes plus 4 bytes.
+ * An {@code ArrayList<String>} costs some 50 bytes of overhead per entry in addition to the
+ * characters. This makes it possible to keep the dictionaries of several models in memory.
+ * <p>
+ * Strings are decoded each time they are retrieved using {@link #get(int)}. Use
+ * {@link #getSequence(int)} to access an entry without decoding it, e.g. for comparisons.
+ *
+ * @author Richard Eckart de Castilho
+ * @see TreeTaggerModelReader#setCompactDictionary(boolean)
+ */
+public final
+class StringTable
+extends AbstractList<String>
+implements RandomAccess
+{
+	private final Charset _charset;
+	private final boolean _latin1;
+	private final boolean _asciiCompatible;
+
+	private byte[] _data;
+	private int[] _offsets;
+	private int _size = 0;
+
+	/**
+	 * New empty table. Entries are added by the model reader.
+	 *
+	 * @param aCharset the encoding used to store the strings.
+	 * @param aExpectedSize the expected number of entries.
+	 */
+	StringTable(
+			final Charset aCharset,
+			final int aExpectedSize)
+	{
+		_charset = aCharset;
+		_latin1 = "ISO-8859-1".equals(aCharset.name());
+		_asciiCompatible = isAsciiCompatible(aCharset);
+		_offsets = new int[Math.max(aExpectedSize, 0) + 1];
+		_data = new byte[Math.max(_offsets.length * 8, 16)];
+	}
+
+	/**
+	 * New table using the given arrays, e.g. as stored by {@link TreeTaggerModelCache}.
+	 *
+	 * @param aCharset the encoding used to store the strings.
+	 * @param aData the encoded strings.
+	 * @param aOffsets the offsets of the strings in the data array, followed by the length of the
+	 *        data.
+	 */
+	StringTable(
+			final Charset aCharset,
+			final byte[] aData,
+			final int[] aOffsets)
+	{
+		if (aOffsets.length == 0 || aOffsets[0] != 0
+				|| aOffsets[aOffsets.length - 1] != aData.length) {
+			throw new IllegalArgumentException("Offsets do not match data");
+		}
+		for (int i = 1; i < aOffsets.length; i++) {
+			if (aOffsets[i] < aOffsets[i - 1]) {
+				throw new IllegalArgumentException("Offsets do not match data");
+			}
+		}
+		_charset = aCharset;
+		_latin1 = "ISO-8859-1".equals(aCharset.name());
+		_asciiCompatible = isAsciiCompatible(aCharset);
+		_data = aData;
+		_offsets = aOffsets;
+		_size = aOffsets.length - 1;
+	}
+
+	/**
+	 * Create a table containing the given strings.
+	 *
+	 * @param aStrings the strings.
+	 * @param aCharset the encoding used to store the strings. This should be the encoding of the
+	 *        model, so the strings can be stored as read from the model.
+	 * @return the table.
+	 */
+	public static
+	StringTable copyOf(
+			final Collection<String> aStrings,
+			final Charset aCharset)
+	{
+		StringTable table = new StringTable(aCharset, aStrings.size());
+		for (String s : aStrings) {
+			byte[] bytes = s.getBytes(aCharset);
+			table.append(bytes, 0, bytes.length);
+		}
+		table.trim();
+		return table;
+	}
+
+	@Override
+	public
+	String get(
+			final int aIndex)
+	{
+		checkIndex(aIndex);
+		return new String(_data, _offsets[aIndex], _offsets[aIndex + 1] - _offsets[aIndex],
+				_charset);
+	}
+
+	/**
+	 * Get an entry without decoding it. If the table is encoded in ISO-8859-1 or if the entry
+	 * consists only of ASCII characters, the returned sequence is a view on the table. Otherwise
+	 * the entry is decoded.
+	 *
+	 * @param aIndex the index of the entry.
+	 * @return the entry.
+	 */
+	public
+	CharSequence getSequence(
+			final int aIndex)
+	{
+		checkIndex(aIndex);
+		int start = _offsets[aIndex];
+		int end = _offsets[aIndex + 1];
+		if (_latin1) {
+			return new ByteSequence(_data, start, end);
+		}
+		if (_asciiCompatible) {
+			for (int i = start; i < end; i++) {
+				if (_data[i] < 0) {
+					return get(aIndex);
+				}
+			}
+			return new ByteSequence(_data, start, end);
+		}
+		return get(aIndex);
+	}
+
+	@Override
+	public
+	int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * Get the encoding used to store the strings.
+	 *
+	 * @return the encoding.
+	 */
+	public
+	Charset getCharset()
+	{
+		return _charset;
+	}
+
+	/**
+	 * Get the number of bytes used to store the strings, excluding the offset table.
+	 *
+	 * @return the number of bytes.
+	 */
+	public
+	int getByteSize()
+	{
+		return _offsets[_size];
+	}
+
+	/**
+	 * Get the offset of an entry in the data array.
+	 */
+	int getOffset(
+			final int aIndex)
+	{
+		return _offsets[aIndex];
+	}
+
+	/**
+	 * Get the length in bytes of an entry.
+	 */
+	int getLength(
+			final int aIndex)
+	{
+		return _offsets[aIndex + 1] - _offsets[aIndex];
+	}
+
+	/**
+	 * Get the data array. It must not be modified.
+	 */
+	byte[] getData()
+	{
+		return _data;
+	}
+
+	/**
+	 * Add an encoded string at the end of the table.
+	 *
+	 * @param aBuffer the buffer containing the encoded string.
+	 * @param aOffset the offset of the string in the buffer.
+	 * @param aLength the length of the string in bytes.
+	 */
+	void append(
+			final byte[] aBuffer,
+			final int aOffset,
+			final int aLength)
+	{
+		int start = _offsets[_size];
+		if (aLength > Integer.MAX_VALUE - 8 - start) {
+			throw new IllegalStateException("String table exceeds 2 GB");
+		}
+		if (start + aLength > _data.length) {
+			long capacity = Math.max(start + (long) aLength, _data.length * 2L);
+			_data = Arrays.copyOf(_data, (int) Math.min(capacity, Integer.MAX_VALUE - 8));
+		}
+		if (_size + 2 > _offsets.length) {
+			_offsets = Arrays.copyOf(_offsets, _offsets.length * 2);
+		}
+		System.arraycopy(aBuffer, aOffset, _data, start, aLength);
+		_size++;
+		_offsets[_size] = start + aLength;
+	}
+
+	/**
+	 * Release the capacity reserved for adding entries.
+	 */
+	void trim()
+	{
+		if (_data.length > _offsets[_size]) {
+			_data = Arrays.copyOf(_data, _offsets[_size]);
+		}
+		if (_offsets.length > _size + 1) {
+			_offsets = Arrays.copyOf(_offsets, _size + 1);
+		}
+	}
+
+	private
+	void checkIndex(
+			final int aIndex)
+	{
+		if (aIndex < 0 || aIndex >= _size) {
+			throw new IndexOutOfBoundsException("Index: " + aIndex + ", Size: " + _size);
+		}
+	}
+
+	private static
+	boolean isAsciiCompatible(
+			final Charset aCharset)
+	{
+		byte[] ascii = new byte[128];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (byte) i;
+		}
+		try {
+			return Arrays.equals(ascii, new String(ascii, aCharset).getBytes(aCharset));
+		}
+		catch (final UnsupportedOperationException e) {
+			// Decode-only charsets
+			return false;
+		}
+	}
+
+	/**
+	 * A view on a range of bytes each of which represents one character.
+	 */
+	private static final
+	class ByteSequence
+	implements CharSequence
+	{
+		private final byte[] data;
+		private final int start;
+		private final int end;
+
+		ByteSequence(
+				final byte[] aData,
+				final int aStart,
+				final int aEnd)
+		{
+			data = aData;
+			start = aStart;
+			end = aEnd;
+		}
+
+		@Override
+		public
+		int length()
+		{
+			return end - start;
+		}
+
+		@Override
+		public
+		char charAt(
+				final int aIndex)
+		{
+			if (aIndex < 0 || aIndex >= end - start) {
+				throw new IndexOutOfBoundsException("Index: " + aIndex);
+			}
+			return (char) (data[start + aIndex] & 0xFF);
+		}
+
+		@Override
+		public
+		CharSequence subSequence(
+				final int aStart,
+				final int aEnd)
+		{
+			if (aStart < 0 || aEnd > end - start || aStart > aEnd) {
+				throw new IndexOutOfBoundsException("Range: " + aStart + "-" + aEnd);
+			}
+			return new ByteSequence(data, start + aStart, start + aEnd);
+		}
+
+		@Override
+		public
+		String toString()
+		{
+			char[] chars = new char[end - start];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = (char) (data[start + i] & 0xFF);
+			}
+			return new String(chars);
+		}
+	}
+}
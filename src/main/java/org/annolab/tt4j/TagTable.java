@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Maps the encoded Part-of-Speech tags in the TreeTagger output to canonical string instances
+ * without decoding them first. Each distinct tag is decoded only once, the first time it is
+ * seen. Tags are numbered in the order they are added.
+ * <p>
+ * This class is not thread-safe. It is used only by the thread reading the TreeTagger output.
+ *
+ * @author Richard Eckart de Castilho
+ */
+class TagTable
+{
+	private final Charset _charset;
+
+	private byte[][] _keys = new byte[16][];
+	private String[] _tags = new String[16];
+	private int _size = 0;
+
+	// Open addressing hash table containing tag index + 1, 0 marks an empty slot
+	private int[] _table = new int[32];
+
+	/**
+	 * New empty table.
+	 *
+	 * @param aCharset the encoding of the TreeTagger output.
+	 */
+	TagTable(
+			final Charset aCharset)
+	{
+		_charset = aCharset;
+	}
+
+	/**
+	 * Get the index of the tag encoded in the given bytes. If the tag has not been seen before,
+	 * it is added to the table.
+	 *
+	 * @param aBuffer the buffer.
+	 * @param aFrom the offset of the first byte of the tag.
+	 * @param aTo the offset after the last byte of the tag.
+	 * @return the index of the tag.
+	 */
+	int lookup(
+			final byte[] aBuffer,
+			final int aFrom,
+			final int aTo)
+	{
+		final int mask = _table.length - 1;
+		int slot = hash(aBuffer, aFrom, aTo) & mask;
+		while (_table[slot] != 0) {
+			int index = _table[slot] - 1;
+			if (equals(_keys[index], aBuffer, aFrom, aTo)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return insert(Arrays.copyOfRange(aBuffer, aFrom, aTo),
+				new String(aBuffer, aFrom, aTo - aFrom, _charset), slot);
+	}
+
+	/**
+	 * Add a tag unless it is already present.
+	 *
+	 * @param aTag the tag.
+	 * @return the index of the tag.
+	 */
+	int add(
+			final String aTag)
+	{
+		byte[] key = aTag.getBytes(_charset);
+		return lookup(key, 0, key.length);
+	}
+
+	/**
+	 * Get the canonical instance of the tag with the given index.
+	 *
+	 * @param aIndex the tag index.
+	 * @return the tag.
+	 */
+	String getTag(
+			final int aIndex)
+	{
+		return _tags[aIndex];
+	}
+
+	/**
+	 * Get the number of tags.
+	 *
+	 * @return the number of tags.
+	 */
+	int size()
+	{
+		return _size;
+	}
+
+	private
+	int insert(
+			final byte[] aKey,
+			final String aTag,
+			final int aSlot)
+	{
+		if (_size == _keys.length) {
+			_keys = Arrays.copyOf(_keys, _size * 2);
+			_tags = Arrays.copyOf(_tags, _size * 2);
+		}
+
+		int index = _size;
+		_keys[index] = aKey;
+		_tags[index] = aTag;
+		_size++;
+		_table[aSlot] = index + 1;
+
+		// Keep the load factor at or below 0.5
+		if (_size * 2 > _table.length) {
+			rehash(_table.length * 2);
+		}
+
+		return index;
+	}
+
+	private
+	void rehash(
+			final int aCapacity)
+	{
+		_table = new int[aCapacity];
+		final int mask = aCapacity - 1;
+		for (int index = 0; index < _size; index++) {
+			byte[] key = _keys[index];
+			int slot = hash(key, 0, key.length) & mask;
+			while (_table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			_table[slot] = index + 1;
+		}
+	}
+
+	private static
+	int hash(
+			final byte[] aBuffer,
+			final int aFrom,
+			final int aTo)
+	{
+		int h = 0x811C9DC5;
+		for (int i = aFrom; i < aTo; i++) {
+			h = (h ^ aBuffer[i]) * 0x01000193;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static
+	boolean equals(
+			final byte[] aKey,
+			final byte[] aBuffer,
+			final int aFrom,
+			final int aTo)
+	{
+		if (aKey.length != aTo - aFrom) {
+			return false;
+		}
+		for (int i = 0; i < aKey.length; i++) {
+			if (aKey[i] != aBuffer[aFrom + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A token analyzed by TreeTagger, as returned by {@link TreeTaggerWrapper#processAsync}.
+ *
+ * @author Richard Eckart de Castilho
+ *
+ * @param <O> the token type.
+ */
+public
+class TaggedToken<O>
+{
+	private final O _token;
+	private final String _pos;
+	private final String _lemma;
+	private final List<Candidate> _candidates;
+
+	/**
+	 * New tagged token.
+	 *
+	 * @param aToken the token object.
+	 * @param aPos the Part-of-Speech tag or {@code null}.
+	 * @param aLemma the lemma or {@code null}.
+	 * @param aCandidates the tag/lemma candidates with their probabilities.
+	 */
+	public
+	TaggedToken(
+			final O aToken,
+			final String aPos,
+			final String aLemma,
+			final List<Candidate> aCandidates)
+	{
+		_token = aToken;
+		_pos = aPos;
+		_lemma = aLemma;
+		_candidates = aCandidates != null ? Collections.unmodifiableList(aCandidates) :
+				Collections.<Candidate>emptyList();
+	}
+
+	/**
+	 * Get the token object.
+	 *
+	 * @return one of the token objects passed to {@link TreeTaggerWrapper#processAsync}.
+	 */
+	public
+	O getToken()
+	{
+		return _token;
+	}
+
+	/**
+	 * Get the best Part-of-Speech tag.
+	 *
+	 * @return the Part-of-Speech tag as produced by TreeTagger or {@code null}.
+	 */
+	public
+	String getPos()
+	{
+		return _pos;
+	}
+
+	/**
+	 * Get the lemma for the best Part-of-Speech tag.
+	 *
+	 * @return the lemma as produced by TreeTagger or {@code null}.
+	 */
+	public
+	String getLemma()
+	{
+		return _lemma;
+	}
+
+	/**
+	 * Get all tag/lemma candidates with their probabilities. These are only available if
+	 * {@link TreeTaggerWrapper#setProbabilityThreshold(Double)} is used.
+	 *
+	 * @return the candidates, best first. The list is empty if no probabilities are available.
+	 */
+	public
+	List<Candidate> getCandidates()
+	{
+		return _candidates;
+	}
+
+	@Override
+	public
+	String toString()
+	{
+		return _token + " " + _pos + " " + _lemma;
+	}
+
+	/**
+	 * A tag/lemma candidate with its probability.
+	 */
+	public static
+	class Candidate
+	{
+		private final String _pos;
+		private final String _lemma;
+		private final double _probability;
+
+		/**
+		 * New candidate.
+		 *
+		 * @param aPos the Part-of-Speech tag.
+		 * @param aLemma the lemma.
+		 * @param aProbability the probability.
+		 */
+		public
+		Candidate(
+				final String aPos,
+				final String aLemma,
+				final double aProbability)
+		{
+			_pos = aPos;
+			_lemma = aLemma;
+			_probability = aProbability;
+		}
+
+		/**
+		 * Get the Part-of-Speech tag.
+		 *
+		 * @return the Part-of-Speech tag.
+		 */
+		public
+		String getPos()
+		{
+			return _pos;
+		}
+
+		/**
+		 * Get the lemma.
+		 *
+		 * @return the lemma.
+		 */
+		public
+		String getLemma()
+		{
+			return _lemma;
+		}
+
+		/**
+		 * Get the probability.
+		 *
+		 * @return the probability.
+		 */
+		public
+		double getProbability()
+		{
+			return _probability;
+		}
+
+		@Override
+		public
+		String toString()
+		{
+			return _pos + " " + _lemma + " " + _probability;
+		}
+	}
+}
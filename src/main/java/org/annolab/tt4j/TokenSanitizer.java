@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Locale;
+
+/**
+ * Checks if a token can be sent to TreeTagger. Tokens containing control characters such as line
+ * breaks or tabs, tokens consisting only of white space, tokens exceeding the maximum token
+ * length and - unless the model uses UTF-8 - tokens containing characters outside the Basic
+ * Multilingual Plane break the communication with the TreeTagger process.
+ * <p>
+ * Everything that depends only on the model encoding is determined once when the sanitizer is
+ * created. Each token is then checked in a single pass over its characters. The encoded length
+ * is counted during that pass for UTF-8 and single-byte encodings. Only for other encodings a
+ * long token is encoded to determine its length.
+ * <p>
+ * Whether a token can be encoded in the model encoding is intentionally not checked. Like
+ * before, such tokens are sent to TreeTagger and the characters which cannot be encoded are
+ * replaced, e.g. the euro sign becomes {@code ?} for an ISO-8859-1 model. Dropping these tokens
+ * instead would silently remove them from the output. The encoder is only used to determine
+ * the encoded length and uses the same replacement as the encoder sending the tokens.
+ *
+ * @author Richard Eckart de Castilho
+ */
+class TokenSanitizer
+{
+	private final int _maximumTokenLength;
+	private final boolean _unicode;
+	private final boolean _singleByte;
+	private final CharsetEncoder _encoder;
+	private final ByteBuffer _encoded;
+
+	/**
+	 * New sanitizer.
+	 *
+	 * @param aEncoding the model encoding.
+	 * @param aMaximumTokenLength the maximal number of bytes allowed in a token.
+	 */
+	TokenSanitizer(
+			final String aEncoding,
+			final int aMaximumTokenLength)
+	{
+		Charset charset = Charset.forName(aEncoding);
+		_maximumTokenLength = aMaximumTokenLength;
+		_unicode = "UTF-8".equals(charset.name().toUpperCase(Locale.US));
+		_encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		_singleByte = _encoder.maxBytesPerChar() == 1.0f;
+		_encoded = ByteBuffer.allocate(4096);
+	}
+
+	/**
+	 * Check if the given token text can be sent to the TreeTagger process.
+	 *
+	 * @param aText the token text.
+	 * @return whether the token can be sent.
+	 */
+	boolean isAcceptable(
+			final String aText)
+	{
+		if (aText == null) {
+			return false;
+		}
+
+		// Check if the encoded string may be longer than the maximal allowed size. We expect
+		// that the String might at worst grow to 4 times its size because a character in UTF-8
+		// can become at most 4 bytes.
+		final int length = aText.length();
+		final boolean checkLength = length > (_maximumTokenLength >> 2);
+
+		boolean onlyWhitespace = true;
+		int bytes = 0;
+		for (int n = 0; n < length; n++) {
+			char c = aText.charAt(n);
+
+			// Control characters break the communication with the TreeTagger process
+			if (c <= 0x001B) {
+				return false;
+			}
+
+			if (Character.isHighSurrogate(c) && n + 1 < length
+					&& Character.isLowSurrogate(aText.charAt(n + 1))) {
+				// Cannot deal with Unicode > 16 bit if not in Unicode mode
+				if (!_unicode) {
+					return false;
+				}
+				// A surrogate pair is encoded as 4 bytes in UTF-8
+				bytes += 4;
+				n++;
+				onlyWhitespace = false;
+				continue;
+			}
+
+			if (_unicode) {
+				bytes += c < 0x80 ? 1 : (c < 0x800 ? 2 : 3);
+			}
+
+			if (onlyWhitespace) {
+				onlyWhitespace = Character.isWhitespace(c);
+			}
+		}
+
+		if (onlyWhitespace) {
+			return false;
+		}
+
+		if (checkLength) {
+			if (_singleByte) {
+				bytes = length;
+			}
+			else if (!_unicode) {
+				bytes = getEncodedLength(aText);
+			}
+			if (bytes >= _maximumTokenLength) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private synchronized
+	int getEncodedLength(
+			final String aText)
+	{
+		CharBuffer chars = CharBuffer.wrap(aText);
+		int bytes = 0;
+		_encoder.reset();
+		while (true) {
+			_encoded.clear();
+			CoderResult result = _encoder.encode(chars, _encoded, true);
+			bytes += _encoded.position();
+			if (!result.isOverflow()) {
+				break;
+			}
+		}
+		_encoded.clear();
+		_encoder.flush(_encoded);
+		bytes += _encoded.position();
+		return bytes;
+	}
+}
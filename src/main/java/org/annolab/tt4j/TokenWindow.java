@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded window of tokens which have been sent to TreeTagger but for which no output has been
+ * read yet. The writer thread adds each token together with the text it sent for it, the reader
+ * thread takes them out again in the same order when the corresponding record arrives. This
+ * allows to pair records with their tokens without iterating the token source twice and keeps the
+ * memory used for a stream of tokens bounded.
+ *
+ * @author Richard Eckart de Castilho
+ *
+ * @param <O> the token type.
+ */
+class TokenWindow<O>
+{
+	private final Object[] _tokens;
+	private final String[] _texts;
+	private int _head = 0;
+	private int _count = 0;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _notFull = _lock.newCondition();
+
+	private O _token;
+	private String _text;
+
+	/**
+	 * New window.
+	 *
+	 * @param aSize the maximal number of tokens in the window.
+	 */
+	TokenWindow(
+			final int aSize)
+	{
+		if (aSize < 1) {
+			throw new IllegalArgumentException("Window size must be at least 1 but is " + aSize);
+		}
+
+		_tokens = new Object[aSize];
+		_texts = new String[aSize];
+	}
+
+	/**
+	 * Add a token. Must only be called if the window is not {@link #isFull() full}.
+	 *
+	 * @param aToken the token.
+	 * @param aText the text sent for the token.
+	 */
+	void add(
+			final O aToken,
+			final String aText)
+	{
+		_lock.lock();
+		try {
+			if (_count == _tokens.length) {
+				throw new IllegalStateException("Window is full");
+			}
+
+			int i = (_head + _count) % _tokens.length;
+			_tokens[i] = aToken;
+			_texts[i] = aText;
+			_count++;
+		}
+		finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * Take the oldest token out of the window. It is then available from {@link #getToken()}
+	 * and {@link #getText()} until the next call.
+	 *
+	 * @return {@code false} if the window was empty.
+	 */
+	@SuppressWarnings("unchecked")
+	boolean take()
+	{
+		_lock.lock();
+		try {
+			if (_count == 0) {
+				_token = null;
+				_text = null;
+				return false;
+			}
+
+			_token = (O) _tokens[_head];
+			_text = _texts[_head];
+			_tokens[_head] = null;
+			_texts[_head] = null;
+			_head = (_head + 1) % _tokens.length;
+			_count--;
+			_notFull.signal();
+			return true;
+		}
+		finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the token taken last.
+	 *
+	 * @return the token.
+	 */
+	O getToken()
+	{
+		return _token;
+	}
+
+	/**
+	 * Get the text of the token taken last.
+	 *
+	 * @return the text.
+	 */
+	String getText()
+	{
+		return _text;
+	}
+
+	/**
+	 * Check if the window is full.
+	 *
+	 * @return whether the window is full.
+	 */
+	boolean isFull()
+	{
+		_lock.lock();
+		try {
+			return _count == _tokens.length;
+		}
+		finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until there is space for at least one more token in the window.
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	void awaitNotFull()
+	throws InterruptedException
+	{
+		_lock.lockInterruptibly();
+		try {
+			while (_count == _tokens.length) {
+				_notFull.await();
+			}
+		}
+		finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * Drop all tokens.
+	 */
+	void clear()
+	{
+		_lock.lock();
+		try {
+			for (int i = 0; i < _tokens.length; i++) {
+				_tokens[i] = null;
+				_texts[i] = null;
+			}
+			_count = 0;
+			_token = null;
+			_text = null;
+			_notFull.signalAll();
+		}
+		finally {
+			_lock.unlock();
+		}
+	}
+}
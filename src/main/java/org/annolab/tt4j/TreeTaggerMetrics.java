@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a {@link TreeTaggerWrapper}. The metrics are updated while the wrapper is working
+ * and can be read at any time. They are cumulative over all TreeTagger processes started by the
+ * wrapper. To expose them via JMX, register the instance as a standard MBean, e.g.:
+ *
+ * <pre>
+ * ManagementFactory.getPlatformMBeanServer().registerMBean(tt.getMetrics(),
+ *         new ObjectName("org.annolab.tt4j:type=TreeTaggerMetrics,name=english"));
+ * </pre>
+ *
+ * @author Richard Eckart de Castilho
+ * @see TreeTaggerWrapper#getMetrics()
+ */
+public
+class TreeTaggerMetrics
+implements TreeTaggerMetricsMBean
+{
+	private static final int LATENCY_BUCKETS = 32;
+
+	private final LongAdder _tokensWritten = new LongAdder();
+	private final LongAdder _tokensRead = new LongAdder();
+	private final LongAdder _tokensDropped = new LongAdder();
+	private final LongAdder _tokensReplaced = new LongAdder();
+	private final LongAdder _documentsProcessed = new LongAdder();
+	private final LongAdder _callsCompleted = new LongAdder();
+	private final LongAdder _callsFailed = new LongAdder();
+	private final LongAdder _bytesWritten = new LongAdder();
+	private final LongAdder _bytesRead = new LongAdder();
+	private final LongAdder _processStartCount = new LongAdder();
+	private volatile long _processStartTime = 0;
+	private final LongAdder _writeBlockedNanos = new LongAdder();
+	private final LongAdder _readBlockedNanos = new LongAdder();
+	private final AtomicLongArray _latency = new AtomicLongArray(LATENCY_BUCKETS);
+	private final LongAdder _latencyNanos = new LongAdder();
+
+	void tokenWritten()
+	{
+		_tokensWritten.increment();
+	}
+
+	void tokenRead()
+	{
+		_tokensRead.increment();
+	}
+
+	void tokensDropped(
+			final int aCount)
+	{
+		_tokensDropped.add(aCount);
+	}
+
+	void tokenReplaced()
+	{
+		_tokensReplaced.increment();
+	}
+
+	void written(
+			final int aBytes,
+			final long aNanos)
+	{
+		_bytesWritten.add(aBytes);
+		_writeBlockedNanos.add(aNanos);
+	}
+
+	void read(
+			final int aBytes,
+			final long aNanos)
+	{
+		if (aBytes > 0) {
+			_bytesRead.add(aBytes);
+		}
+		_readBlockedNanos.add(aNanos);
+	}
+
+	void processStarted()
+	{
+		_processStartCount.increment();
+		_processStartTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Record a call.
+	 *
+	 * @param aNanos the latency of the call.
+	 * @param aDocuments the number of documents processed by the call.
+	 * @param aSuccess whether the call completed successfully.
+	 */
+	void call(
+			final long aNanos,
+			final int aDocuments,
+			final boolean aSuccess)
+	{
+		if (aSuccess) {
+			_callsCompleted.increment();
+			_documentsProcessed.add(aDocuments);
+		}
+		else {
+			_callsFailed.increment();
+		}
+		_latencyNanos.add(aNanos);
+		_latency.incrementAndGet(bucket(aNanos));
+	}
+
+	private static
+	int bucket(
+			final long aNanos)
+	{
+		long micros = aNanos / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, LATENCY_BUCKETS - 1);
+	}
+
+	public
+	long getTokensWritten()
+	{
+		return _tokensWritten.sum();
+	}
+
+	public
+	long getTokensRead()
+	{
+		return _tokensRead.sum();
+	}
+
+	public
+	long getTokensDropped()
+	{
+		return _tokensDropped.sum();
+	}
+
+	public
+	long getTokensReplaced()
+	{
+		return _tokensReplaced.sum();
+	}
+
+	public
+	long getDocumentsProcessed()
+	{
+		return _documentsProcessed.sum();
+	}
+
+	public
+	long getCallsCompleted()
+	{
+		return _callsCompleted.sum();
+	}
+
+	public
+	long getCallsFailed()
+	{
+		return _callsFailed.sum();
+	}
+
+	public
+	long getBytesWritten()
+	{
+		return _bytesWritten.sum();
+	}
+
+	public
+	long getBytesRead()
+	{
+		return _bytesRead.sum();
+	}
+
+	public
+	long getProcessStartCount()
+	{
+		return _processStartCount.sum();
+	}
+
+	public
+	long getProcessStartTime()
+	{
+		return _processStartTime;
+	}
+
+	public
+	long getWriteBlockedTime()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(_writeBlockedNanos.sum());
+	}
+
+	public
+	long getReadBlockedTime()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(_readBlockedNanos.sum());
+	}
+
+	public
+	long[] getLatencyHistogram()
+	{
+		long[] histogram = new long[LATENCY_BUCKETS];
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = _latency.get(i);
+		}
+		return histogram;
+	}
+
+	public
+	double getLatencyMean()
+	{
+		long calls = getCallsCompleted() + getCallsFailed();
+		return calls > 0 ? _latencyNanos.sum() / 1000000.0 / calls : 0.0;
+	}
+
+	public
+	double getLatencyPercentile(
+			final double aPercentile)
+	{
+		long[] histogram = getLatencyHistogram();
+		long total = 0;
+		for (long count : histogram) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0.0;
+		}
+
+		long rank = (long) Math.ceil(total * aPercentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= rank) {
+				return (1L << i) / 1000.0;
+			}
+		}
+		return (1L << (LATENCY_BUCKETS - 1)) / 1000.0;
+	}
+
+	public
+	void reset()
+	{
+		_tokensWritten.reset();
+		_tokensRead.reset();
+		_tokensDropped.reset();
+		_tokensReplaced.reset();
+		_documentsProcessed.reset();
+		_callsCompleted.reset();
+		_callsFailed.reset();
+		_bytesWritten.reset();
+		_bytesRead.reset();
+		_processStartCount.reset();
+		_writeBlockedNanos.reset();
+		_readBlockedNanos.reset();
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			_latency.set(i, 0);
+		}
+		_latencyNanos.reset();
+	}
+}
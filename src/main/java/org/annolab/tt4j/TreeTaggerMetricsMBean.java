@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+/**
+ * Management interface of {@link TreeTaggerMetrics}, allowing the metrics to be exposed via JMX.
+ *
+ * @author Richard Eckart de Castilho
+ */
+public
+interface TreeTaggerMetricsMBean
+{
+	/**
+	 * @return the number of tokens sent to TreeTagger.
+	 */
+	long getTokensWritten();
+
+	/**
+	 * @return the number of tokens received from TreeTagger.
+	 */
+	long getTokensRead();
+
+	/**
+	 * @return the number of tokens which could not be sent to TreeTagger and were dropped.
+	 */
+	long getTokensDropped();
+
+	/**
+	 * @return the number of tokens which could not be sent to TreeTagger and were replaced.
+	 */
+	long getTokensReplaced();
+
+	/**
+	 * @return the number of documents processed successfully. Each call to
+	 *     {@link TreeTaggerWrapper#process(java.util.Collection) process} counts as one document,
+	 *     a call to {@link TreeTaggerWrapper#processBatch processBatch} counts each document.
+	 */
+	long getDocumentsProcessed();
+
+	/**
+	 * @return the number of calls completed successfully.
+	 */
+	long getCallsCompleted();
+
+	/**
+	 * @return the number of calls which failed.
+	 */
+	long getCallsFailed();
+
+	/**
+	 * @return the number of bytes sent to the standard input of TreeTagger.
+	 */
+	long getBytesWritten();
+
+	/**
+	 * @return the number of bytes received from the standard output of TreeTagger.
+	 */
+	long getBytesRead();
+
+	/**
+	 * @return the number of times a TreeTagger process was started.
+	 */
+	long getProcessStartCount();
+
+	/**
+	 * @return the time the last TreeTagger process was started in milliseconds since the epoch
+	 *     or 0 if no process was started yet.
+	 */
+	long getProcessStartTime();
+
+	/**
+	 * @return the time in milliseconds spent blocked while sending data to TreeTagger, i.e.
+	 *     waiting for TreeTagger to consume its input.
+	 */
+	long getWriteBlockedTime();
+
+	/**
+	 * @return the time in milliseconds spent blocked while waiting for output from TreeTagger.
+	 */
+	long getReadBlockedTime();
+
+	/**
+	 * @return the number of calls per latency bucket. Bucket 0 counts calls taking less than
+	 *     1 microsecond, bucket {@code i} counts calls taking from 2<sup>i-1</sup> up to
+	 *     2<sup>i</sup> microseconds. The last bucket also counts all longer calls.
+	 */
+	long[] getLatencyHistogram();
+
+	/**
+	 * @return the mean latency of the calls in milliseconds.
+	 */
+	double getLatencyMean();
+
+	/**
+	 * Estimate a latency percentile from the histogram. The estimate is the upper bound of the
+	 * bucket containing the percentile, so it is at most twice the actual value.
+	 *
+	 * @param aPercentile the percentile, e.g. {@literal 99.0}.
+	 * @return the latency in milliseconds.
+	 */
+	double getLatencyPercentile(
+			double aPercentile);
+
+	/**
+	 * Reset all counters and the histogram.
+	 */
+	void reset();
+}
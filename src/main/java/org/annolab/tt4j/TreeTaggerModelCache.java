@@ -0,0 +1,483 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Caches the information extracted from TreeTagger models in sidecar files, so that unchanged
+ * models do not need to be parsed again, e.g. each time a service is started. A sidecar contains
+ * the header, the tagset and the dictionaries of a model in a form that can be loaded using a
+ * few bulk reads. It is only used if the path, size and modification time of the model and the
+ * encoding match those recorded in the sidecar. Only then the CRC-32 checksum of the model is
+ * calculated and compared as well. Otherwise the model is parsed and the sidecar is written anew.
+ * The checksum of a parsed model is calculated while parsing it.
+ * <p>
+ * Writing the sidecar is best-effort. If it cannot be written, e.g. because the directory is
+ * read-only, the parsed model is returned nevertheless. The dictionaries of the models returned
+ * are {@link StringTable}s.
+ * <p>
+ * Example:
+ * <pre>
+ * TreeTaggerModelCache cache = new TreeTaggerModelCache(new File("/var/cache/tt4j"));
+ * List&lt;String&gt; tagset = cache.getTagset(new File("english.par"), "UTF-8");
+ * </pre>
+ *
+ * @author Richard Eckart de Castilho
+ */
+public
+class TreeTaggerModelCache
+{
+	/**
+	 * The file name extension of sidecar files.
+	 */
+	public static final String EXTENSION = ".tt4j";
+
+	private static final int MAGIC = 0x54543443; // "TT4C"
+	private static final int FORMAT_VERSION = 1;
+
+	private final File _directory;
+
+	/**
+	 * New cache storing the sidecar files next to the models, e.g. {@code english.par.tt4j}
+	 * for {@code english.par}.
+	 */
+	public
+	TreeTaggerModelCache()
+	{
+		_directory = null;
+	}
+
+	/**
+	 * New cache storing the sidecar files in the given directory. Use this if the models are
+	 * in a read-only location.
+	 *
+	 * @param aDirectory the directory. It is created if it does not exist.
+	 */
+	public
+	TreeTaggerModelCache(
+			final File aDirectory)
+	{
+		_directory = aDirectory;
+	}
+
+	/**
+	 * Read a model, including its dictionaries.
+	 *
+	 * @param aModelFile the model file. Supports gzipped models when the file name ends in
+	 *        ".gz".
+	 * @param aCharsetName the model encoding (optional).
+	 * @return the model.
+	 * @throws IOException if the model cannot be read.
+	 * @see TreeTaggerModelUtil#readModel(File, String)
+	 */
+	public
+	TreeTaggerModel readModel(
+			final File aModelFile,
+			final String aCharsetName)
+	throws IOException
+	{
+		return read(aModelFile, aCharsetName, true);
+	}
+
+	/**
+	 * Read the tagset of a model. If there is no valid sidecar yet, the whole model is parsed to
+	 * create one.
+	 *
+	 * @param aModelFile the model file. Supports gzipped models when the file name ends in
+	 *        ".gz".
+	 * @param aCharsetName the model encoding (optional).
+	 * @return the tagset.
+	 * @throws IOException if the model cannot be read.
+	 * @see TreeTaggerModelUtil#getTagset(File, String)
+	 */
+	public
+	List<String> getTagset(
+			final File aModelFile,
+			final String aCharsetName)
+	throws IOException
+	{
+		return read(aModelFile, aCharsetName, false).getTags();
+	}
+
+	/**
+	 * Get the sidecar file used for the given model.
+	 *
+	 * @param aModelFile the model file.
+	 * @return the sidecar file.
+	 */
+	public
+	File getSidecar(
+			final File aModelFile)
+	{
+		if (_directory == null) {
+			return new File(aModelFile.getPath() + EXTENSION);
+		}
+
+		// Models with the same name in different locations must not share a sidecar
+		String path = aModelFile.getAbsolutePath();
+		return new File(_directory, aModelFile.getName() + "-"
+				+ Integer.toHexString(path.hashCode()) + EXTENSION);
+	}
+
+	private
+	TreeTaggerModel read(
+			final File aModelFile,
+			final String aCharsetName,
+			final boolean aReadDictionary)
+	throws IOException
+	{
+		String charsetName = aCharsetName != null ? aCharsetName :
+				new TreeTaggerModelReader().getEncoding();
+		Charset charset = Charset.forName(charsetName);
+
+		Key key = new Key(aModelFile.getAbsolutePath(), aModelFile.length(),
+				aModelFile.lastModified(), charset.name());
+
+		File sidecar = getSidecar(aModelFile);
+		if (sidecar.isFile()) {
+			try {
+				TreeTaggerModel cached = load(sidecar, aModelFile, key, charset,
+						aReadDictionary);
+				if (cached != null) {
+					cached.setSource(aModelFile.toString());
+					return cached;
+				}
+			}
+			catch (final IOException e) {
+				// Truncated or otherwise unreadable sidecar - parse the model
+			}
+			catch (final RuntimeException e) {
+				// Corrupt sidecar - parse the model
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		TreeTaggerModel parsed = parse(aModelFile, charsetName, crc);
+		// Do not record a checksum for a model which has been changed while it was parsed
+		if (aModelFile.length() == key.size && aModelFile.lastModified() == key.lastModified) {
+			try {
+				store(sidecar, key, crc.getValue(), parsed);
+			}
+			catch (final IOException e) {
+				// The cache is optional
+			}
+		}
+		return parsed;
+	}
+
+	/**
+	 * Parse a model and calculate the checksum of the model file.
+	 */
+	private static
+	TreeTaggerModel parse(
+			final File aModelFile,
+			final String aCharsetName,
+			final Checksum aChecksum)
+	throws IOException
+	{
+		CheckedInputStream checked = null;
+		try {
+			checked = new CheckedInputStream(new FileInputStream(aModelFile), aChecksum);
+			InputStream is = checked;
+			if (aModelFile.getName().toLowerCase().endsWith(".gz")) {
+				is = new GZIPInputStream(is);
+			}
+			TreeTaggerModelReader reader = new TreeTaggerModelReader();
+			reader.setEncoding(aCharsetName);
+			reader.setCompactDictionary(true);
+			TreeTaggerModel model = reader.read(new BufferedInputStream(is));
+			model.setSource(aModelFile.toString());
+
+			// The parser may not need the whole file, but the checksum does
+			skipAll(checked);
+			return model;
+		}
+		finally {
+			Util.close(checked);
+		}
+	}
+
+	/**
+	 * Calculate the checksum of a model file.
+	 */
+	private static
+	long checksum(
+			final File aModelFile)
+	throws IOException
+	{
+		CheckedInputStream checked = null;
+		try {
+			checked = new CheckedInputStream(new FileInputStream(aModelFile), new CRC32());
+			skipAll(checked);
+			return checked.getChecksum().getValue();
+		}
+		finally {
+			Util.close(checked);
+		}
+	}
+
+	private static
+	void skipAll(
+			final InputStream aStream)
+	throws IOException
+	{
+		byte[] buffer = new byte[64 * 1024];
+		while (aStream.read(buffer) != -1) {
+			// Only read
+		}
+	}
+
+	/**
+	 * Load a model from a sidecar. The sidecar is read using a stream, not mapped, so that it
+	 * can be replaced right afterwards, even on platforms which do not allow to replace mapped
+	 * files.
+	 *
+	 * @return the model or {@code null} if the sidecar belongs to a different model.
+	 */
+	private static
+	TreeTaggerModel load(
+			final File aSidecar,
+			final File aModelFile,
+			final Key aKey,
+			final Charset aCharset,
+			final boolean aReadDictionary)
+	throws IOException
+	{
+		long limit = aSidecar.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(aSidecar), 64 * 1024));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+			String path = readString(in, limit);
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			long crc = in.readLong();
+			String charsetName = readString(in, limit);
+			if (!aKey.equals(new Key(path, size, lastModified, charsetName))) {
+				return null;
+			}
+
+			// The cheap checks passed, now make sure the content is the same as well
+			if (checksum(aModelFile) != crc) {
+				return null;
+			}
+
+			TreeTaggerModel model = new TreeTaggerModel();
+			model.setVersion(in.readInt());
+			model.setByteOrder(in.readByte() == 0 ? ByteOrder.BIG_ENDIAN :
+					ByteOrder.LITTLE_ENDIAN);
+			model.setTags(new ArrayList<String>(readTable(in, limit, aCharset)));
+			if (aReadDictionary) {
+				model.setLemmas(readTable(in, limit, aCharset));
+				model.setTokens(readTable(in, limit, aCharset));
+			}
+			return model;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static
+	void store(
+			final File aSidecar,
+			final Key aKey,
+			final long aCrc,
+			final TreeTaggerModel aModel)
+	throws IOException
+	{
+		File directory = aSidecar.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create directory [" + directory + "]");
+		}
+
+		// Write to a temporary file first, so a sidecar is either complete or absent
+		File tmp = File.createTempFile(aSidecar.getName(), ".tmp", directory);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmp), 64 * 1024));
+			try {
+				Charset charset = Charset.forName(aKey.charsetName);
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				writeString(out, aKey.path);
+				out.writeLong(aKey.size);
+				out.writeLong(aKey.lastModified);
+				out.writeLong(aCrc);
+				writeString(out, aKey.charsetName);
+				out.writeInt(aModel.getVersion());
+				out.writeByte(ByteOrder.BIG_ENDIAN.equals(aModel.getByteOrder()) ? 0 : 1);
+				writeTable(out, aModel.getTags(), charset);
+				writeTable(out, aModel.getLemmas(), charset);
+				writeTable(out, aModel.getTokens(), charset);
+			}
+			finally {
+				out.close();
+			}
+
+			try {
+				Files.move(tmp.toPath(), aSidecar.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), aSidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	private static
+	void writeTable(
+			final DataOutputStream aOut,
+			final List<String> aStrings,
+			final Charset aCharset)
+	throws IOException
+	{
+		StringTable table = aStrings instanceof StringTable
+				&& aCharset.equals(((StringTable) aStrings).getCharset()) ? (StringTable) aStrings
+				: StringTable.copyOf(aStrings, aCharset);
+
+		aOut.writeInt(table.size());
+		for (int i = 0; i <= table.size(); i++) {
+			aOut.writeInt(table.getOffset(i));
+		}
+		aOut.write(table.getData(), 0, table.getByteSize());
+	}
+
+	private static
+	StringTable readTable(
+			final DataInputStream aIn,
+			final long aLimit,
+			final Charset aCharset)
+	throws IOException
+	{
+		int size = aIn.readInt();
+		if (size < 0 || (size + 1) * 4L > aLimit) {
+			throw new IOException("Illegal table size " + size);
+		}
+		byte[] buffer = new byte[(size + 1) * 4];
+		aIn.readFully(buffer);
+		int[] offsets = new int[size + 1];
+		ByteBuffer.wrap(buffer).asIntBuffer().get(offsets);
+
+		if (offsets[size] < 0 || offsets[size] > aLimit) {
+			throw new IOException("Illegal table length " + offsets[size]);
+		}
+		byte[] data = new byte[offsets[size]];
+		aIn.readFully(data);
+		return new StringTable(aCharset, data, offsets);
+	}
+
+	private static
+	void writeString(
+			final DataOutputStream aOut,
+			final String aString)
+	throws IOException
+	{
+		byte[] bytes = aString.getBytes("UTF-8");
+		aOut.writeInt(bytes.length);
+		aOut.write(bytes);
+	}
+
+	private static
+	String readString(
+			final DataInputStream aIn,
+			final long aLimit)
+	throws IOException
+	{
+		int length = aIn.readInt();
+		if (length < 0 || length > aLimit) {
+			throw new IOException("Illegal string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		aIn.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Identifies the state of a model file at the time its sidecar was written. The checksum is
+	 * not part of the key, it is only calculated if the key matches.
+	 */
+	private static final
+	class Key
+	{
+		final String path;
+		final long size;
+		final long lastModified;
+		final String charsetName;
+
+		Key(
+				final String aPath,
+				final long aSize,
+				final long aLastModified,
+				final String aCharsetName)
+		{
+			path = aPath;
+			size = aSize;
+			lastModified = aLastModified;
+			charsetName = aCharsetName;
+		}
+
+		@Override
+		public
+		boolean equals(
+				final Object aObject)
+		{
+			if (!(aObject instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) aObject;
+			return path.equals(other.path) && size == other.size
+					&& lastModified == other.lastModified
+					&& charsetName.equals(other.charsetName);
+		}
+
+		@Override
+		public
+		int hashCode()
+		{
+			return path.hashCode() ^ (int) size;
+		}
+	}
+}
@@ -21,26 +21,46 @@ package org.annolab.tt4j;
 import static org.annolab.tt4j.TreeTaggerModel.VERSION_3_1;
 import static org.annolab.tt4j.TreeTaggerModel.VERSION_3_2;
 
-import java.io.DataInput;
-import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Reader for TreeTagger model files. 
+ * <p>
+ * Streams are parsed from a large buffer which is filled in bulk and re-used for subsequent
+ * reads. The opaque blocks of the format are skipped as a whole and the strings are decoded
+ * using a cached decoder, so reading a model is bound by I/O rather than by per-value calls.
+ * Instances are not thread-safe.
  * 
  * @author Richard Eckart de Castilho
  */
 public class TreeTaggerModelReader
 {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	private String charsetName = "UTF-8";
 	private InputStream inStream;
-	private DataInput in;
+	
+	// Contains the unread data between position and limit
+	private ByteBuffer buffer;
+	
+	private CharsetDecoder decoder;
+	private String decoderCharsetName;
+	private CharBuffer chars;
 	
 	private boolean readDictionary = true;
+	private boolean compactDictionary = false;
 		
 	/**
 	 * Read the model from a stream.
@@ -54,16 +74,23 @@ public class TreeTaggerModelReader
 		TreeTaggerModel model = new TreeTaggerModel();
 		
 		inStream = aIn;
-		in = new DataInputStream(inStream);
+		// The tags are at the start of the file, there is no point in reading ahead far
+		int bufferSize = readDictionary ? BUFFER_SIZE : BUFFER_SIZE / 16;
+		if (buffer == null || buffer.capacity() < bufferSize) {
+			buffer = ByteBuffer.allocate(bufferSize);
+		}
+		buffer.clear();
+		buffer.limit(0);
+		buffer.order(ByteOrder.BIG_ENDIAN);
 		
 		try {
-			int version = in.readInt();
+			int version = readInt();
 			
 			// Test big-endian
 			if (!decodeVersion(model, version, ByteOrder.BIG_ENDIAN)) {
 				// Test little-endian
 				if (decodeVersion(model, Integer.reverseBytes(version), ByteOrder.LITTLE_ENDIAN)) {
-					in = new LittleEndianDataInputStream(aIn);
+					buffer.order(ByteOrder.LITTLE_ENDIAN);
 				}
 				else {
 					throw new IllegalStateException("Unknown version or file format");
@@ -75,13 +102,12 @@ public class TreeTaggerModelReader
 			
 			switch (model.getVersion()) {
 			case VERSION_3_1:
-				in.readInt(); // Unknown
-				numberOfTags = in.readInt(); // Number of tags
+				skip(4); // Unknown
+				numberOfTags = readInt(); // Number of tags
 				break;
 			case VERSION_3_2:
-				in.readInt(); // Unknown
-				in.readInt(); // Unknown
-				numberOfTags = in.readInt(); // Number of tags
+				skip(8); // Unknown
+				numberOfTags = readInt(); // Number of tags
 				break;
 			}
 			
@@ -90,65 +116,131 @@ public class TreeTaggerModelReader
 			
 			if (readDictionary) {
 				// Read lemma dictionary size
-				int lemmaSize = in.readInt();
-				model.setLemmas(readStrings(lemmaSize));
+				int lemmaSize = readInt();
+				model.setLemmas(compactDictionary ? readStringTable(lemmaSize) :
+						readStrings(lemmaSize));
 
 				// Read token dictionary size
-				int tokenSize = in.readInt();
+				int tokenSize = readInt();
 				
-				int marker1 = in.readInt();
+				int marker1 = readInt();
 				assert 0xFFFFFFFE == marker1; // Assert marker
-                byte marker2 = in.readByte();
+				byte marker2 = readByte();
 				assert 0x00 == marker2; // Assert end of block
 	
-				// Read unknown block
-				int c1 = in.readInt(); // Read block size
-				for (int c1i = 0; c1i < c1; c1i ++) {
-					in.readInt(); // Unknown
-					in.readInt(); // Unknown
-					in.readInt(); // Unknown
-				}
-				in.readInt(); // Unknown
-				byte marker3 = in.readByte();
+				// Skip unknown block
+				int c1 = readInt(); // Read block size
+				skip(12L * c1);
+				skip(4); // Unknown
+				byte marker3 = readByte();
 				assert 0x00 == marker3; // Assert end of block
 	
-				// Read unknown block
-				int c2 = in.readInt(); // Read block size
-				in.readInt(); // Unknown
-				for (int band = 0; band < 3; band ++) {
-					for (int c2i = 0; c2i < c2; c2i ++) {
-						in.readInt(); // Unknown
-					}
-				}
+				// Skip unknown block
+				int c2 = readInt(); // Read block size
+				skip(4); // Unknown
+				skip(3 * 4L * c2);
 	
-				List<String> tokens = new ArrayList<String>();
+				StringTable table = compactDictionary ? new StringTable(
+						Charset.forName(charsetName), initialCapacity(tokenSize)) : null;
+				List<String> tokens = compactDictionary ? null :
+						new ArrayList<String>(initialCapacity(tokenSize));
 				for (int ct = 0; ct < tokenSize; ct ++) {
-					String token = readZeroTerminatedString(charsetName);
-					tokens.add(token);
-					
-					// Read token data
-					int bsize = in.readInt(); // Block size size
-					in.readInt(); // Unknown
-					for (int cb = 0; cb < bsize; cb++) {
-						in.readInt(); // Unknown
-						in.readInt(); // Unknown
-						in.readInt(); // Unknown
+					if (compactDictionary) {
+						appendZeroTerminated(table);
+					}
+					else {
+						String token = readZeroTerminatedString(charsetName);
+						tokens.add(token);
 					}
+					
+					// Skip token data
+					int bsize = readInt(); // Block size size
+					skip(4 + 12L * bsize);
+				}
+				if (compactDictionary) {
+					table.trim();
+					model.setTokens(table);
+				}
+				else {
+					model.setTokens(tokens);
 				}
-				model.setTokens(tokens);
 			}
 
 			return model;
 		}
 		finally {
 			inStream = null;
-			in = null;
+			if (buffer.capacity() > BUFFER_SIZE) {
+				// Do not hold on to a buffer grown for an exceptionally long string
+				buffer = null;
+			}
+		}
+	}
+	
+	/**
+	 * Read the model from a file by mapping it into memory. Only the header and the tags are
+	 * decoded right away. The lemmas and tokens are decoded only when they are accessed, see
+	 * {@link MappedTreeTaggerModel}. Files larger than 2 GB are supported. The model must not be
+	 * compressed.
+	 * 
+	 * @param aFile the model file.
+	 * @return the model.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public TreeTaggerModel read(File aFile) throws IOException
+	{
+		TreeTaggerModel model = read(new MappedFile(aFile));
+		model.setSource(aFile.toString());
+		return model;
+	}
+
+	TreeTaggerModel read(MappedFile aFile) throws IOException
+	{
+		TreeTaggerModel header = new TreeTaggerModel();
+		int version = aFile.getInt(0);
+		
+		// Test big-endian
+		if (!decodeVersion(header, version, ByteOrder.BIG_ENDIAN)) {
+			// Test little-endian
+			if (!decodeVersion(header, Integer.reverseBytes(version), ByteOrder.LITTLE_ENDIAN)) {
+				throw new IllegalStateException("Unknown version or file format");
+			}
+		}
+		aFile.setByteOrder(header.getByteOrder());
+		
+		// Read rest of the header data, see read(InputStream)
+		long pos = 4;
+		switch (header.getVersion()) {
+		case VERSION_3_1:
+			pos += 4;
+			break;
+		case VERSION_3_2:
+			pos += 8;
+			break;
+		}
+		int numberOfTags = aFile.getInt(pos);
+		pos += 4;
+		
+		// Read tags, these are always needed
+		Charset charset = Charset.forName(charsetName);
+		List<String> tags = new ArrayList<String>(numberOfTags);
+		for (int i = 0; i < numberOfTags; i++) {
+			long end = aFile.indexOf((byte) 0, pos);
+			tags.add(aFile.getString(pos, end, charset));
+			pos = end + 1;
 		}
+		
+		TreeTaggerModel model = readDictionary ? new MappedTreeTaggerModel(aFile, charset, pos) :
+				new TreeTaggerModel();
+		model.setVersion(header.getVersion());
+		model.setByteOrder(header.getByteOrder());
+		model.setTags(tags);
+		return model;
 	}
 	
 	protected List<String> readStrings(int aCount) throws IOException
 	{
-		List<String> tags = new ArrayList<String>();
+		List<String> tags = new ArrayList<String>(initialCapacity(aCount));
 		
 		for (int i = 0; i < aCount; i++) {
 			String tag = readZeroTerminatedString(charsetName);
@@ -158,6 +250,26 @@ public class TreeTaggerModelReader
 		return tags;
 	}
 	
+	private StringTable readStringTable(int aCount) throws IOException
+	{
+		StringTable table = new StringTable(Charset.forName(charsetName), initialCapacity(aCount));
+		for (int i = 0; i < aCount; i++) {
+			appendZeroTerminated(table);
+		}
+		table.trim();
+		return table;
+	}
+	
+	/**
+	 * Add the next zero-terminated string to the table without decoding it.
+	 */
+	private void appendZeroTerminated(StringTable aTable) throws IOException
+	{
+		int length = scanZeroTerminated();
+		aTable.append(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+		buffer.position(buffer.position() + length + 1);
+	}
+	
 	protected boolean decodeVersion(TreeTaggerModel aModel, int aVersion, ByteOrder aByteOrder)
 	{
 		switch (aVersion) {
@@ -175,36 +287,140 @@ public class TreeTaggerModelReader
 	protected String readZeroTerminatedString(String aCharsetName)
 		throws IOException
 	{
-		return new String(readZeroTerminatedByteArray(), aCharsetName);
+		int length = scanZeroTerminated();
+		String string = decode(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+				aCharsetName);
+		buffer.position(buffer.position() + length + 1);
+		return string;
 	}
 	
 	protected byte[] readZeroTerminatedByteArray() throws IOException
 	{
-		int bytesRead = 0;
-		byte[] buffer = new byte[128];
-		int b;
-		while ((b = inStream.read()) != -1) {
-			// Finished / zero terminated
-			if (b == 0) {
-				// Shrink buffer
-				byte[] buf = buffer;
-				buffer = new byte[bytesRead];
-				System.arraycopy(buf, 0, buffer, 0, bytesRead);
-				return buffer;
+		int length = scanZeroTerminated();
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		buffer.get(); // Terminator
+		return bytes;
+	}
+	
+	/**
+	 * Make sure the next zero-terminated string is in the buffer.
+	 * 
+	 * @return the length of the string, excluding the terminator.
+	 */
+	private int scanZeroTerminated() throws IOException
+	{
+		int scanned = 0;
+		while (true) {
+			byte[] array = buffer.array();
+			int start = buffer.arrayOffset() + buffer.position();
+			int end = buffer.arrayOffset() + buffer.limit();
+			for (int i = start + scanned; i < end; i++) {
+				// Finished / zero terminated
+				if (array[i] == 0) {
+					return i - start;
+				}
 			}
-			
-			// Extend buffer
-			if (bytesRead == buffer.length) {
-				byte[] buf = buffer;
-				buffer = new byte[buf.length + 128];
-				System.arraycopy(buf, 0, buffer, 0, buf.length);
+			scanned = end - start;
+			fill(scanned + 1);
+		}
+	}
+	
+	private String decode(byte[] aBytes, int aOffset, int aLength, String aCharsetName)
+		throws IOException
+	{
+		if (decoder == null || !aCharsetName.equals(decoderCharsetName)) {
+			decoder = Charset.forName(aCharsetName).newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			decoderCharsetName = aCharsetName;
+		}
+		
+		int maxChars = (int) Math.ceil(aLength * (double) decoder.maxCharsPerByte());
+		if (chars == null || chars.capacity() < maxChars) {
+			chars = CharBuffer.allocate(Math.max(maxChars, 256));
+		}
+		chars.clear();
+		
+		decoder.reset();
+		ByteBuffer in = ByteBuffer.wrap(aBytes, aOffset, aLength);
+		CoderResult result = decoder.decode(in, chars, true);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		result = decoder.flush(chars);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		return new String(chars.array(), 0, chars.position());
+	}
+	
+	/**
+	 * Do not trust the size of a corrupt file to the point of running out of memory.
+	 */
+	private static int initialCapacity(int aCount)
+	{
+		return Math.max(0, Math.min(aCount, 1 << 20));
+	}
+	
+	private int readInt() throws IOException
+	{
+		fill(4);
+		return buffer.getInt();
+	}
+	
+	private byte readByte() throws IOException
+	{
+		fill(1);
+		return buffer.get();
+	}
+	
+	private void skip(long aCount) throws IOException
+	{
+		long remaining = aCount;
+		while (remaining > 0) {
+			if (!buffer.hasRemaining()) {
+				fill(1);
 			}
-			
-			buffer[bytesRead] = (byte) b;
-			bytesRead++;
+			int n = (int) Math.min(remaining, buffer.remaining());
+			buffer.position(buffer.position() + n);
+			remaining -= n;
+		}
+	}
+	
+	/**
+	 * Make sure that at least the given number of bytes can be read from the buffer. Unread data
+	 * is moved to the start of the buffer and the rest of the buffer is filled from the stream in
+	 * one go. If the buffer is too small, it is enlarged.
+	 */
+	private void fill(int aCount) throws IOException
+	{
+		if (buffer.remaining() >= aCount) {
+			return;
 		}
 		
-		throw new IOException("Unexpected end of file.");
+		if (aCount > buffer.capacity()) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(aCount, buffer.capacity() * 2));
+			larger.order(buffer.order());
+			larger.put(buffer);
+			larger.flip();
+			buffer = larger;
+		}
+		
+		buffer.compact();
+		try {
+			while (buffer.position() < aCount) {
+				int n = inStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(),
+						buffer.remaining());
+				if (n == -1) {
+					throw new EOFException("Unexpected end of file.");
+				}
+				buffer.position(buffer.position() + n);
+			}
+		}
+		finally {
+			buffer.flip();
+		}
 	}
 
 	/**
@@ -248,4 +464,28 @@ public class TreeTaggerModelReader
 	{
 		readDictionary = aReadDictionary;
 	}
+
+	/**
+	 * Check if the dictionaries are stored in a {@link StringTable}. Per default they are stored
+	 * in an {@link ArrayList}.
+	 * 
+	 * @return if the dictionaries are stored compactly.
+	 */
+	public boolean isCompactDictionary()
+	{
+		return compactDictionary;
+	}
+
+	/**
+	 * Set if the dictionaries read from a stream are stored in a {@link StringTable}. The strings
+	 * are then kept encoded as they are in the model and are decoded when they are retrieved.
+	 * This needs a fraction of the memory, but retrieving a string is slower. Models read
+	 * using {@link #read(File)} are not affected, their dictionaries are not held on the heap.
+	 * 
+	 * @param aCompactDictionary if the dictionaries are stored compactly.
+	 */
+	public void setCompactDictionary(boolean aCompactDictionary)
+	{
+		compactDictionary = aCompactDictionary;
+	}
 }
@@ -45,7 +45,8 @@ public class TreeTaggerModelUtil
 	{
 		InputStream is = null;
 		try {
-			return getTagset(new FileInputStream(aModelFile), aCharsetName);
+			is = new FileInputStream(aModelFile);
+			return getTagset(is, aCharsetName);
 		}
 		finally {
 			Util.close(is);
@@ -108,6 +109,31 @@ public class TreeTaggerModelUtil
 		}
 	}
 
+	/**
+	 * Map a model file into memory. The dictionaries are decoded only when they are accessed,
+	 * which is much faster and uses much less memory than {@link #readModel(File, String)} if
+	 * only parts of the model are needed. The model file must not be changed while the model is
+	 * used.
+	 * 
+	 * @param aFile the file to load the model from. Compressed models are not supported.
+	 * @param aCharsetName the model encoding (optional).
+	 * @return the model.
+	 * @throws IOException if an I/O error occurs.
+	 * @see TreeTaggerModelReader#read(File)
+	 */
+	public static
+	TreeTaggerModel mapModel(
+			final File aFile,
+			final String aCharsetName)
+	throws IOException
+	{
+		TreeTaggerModelReader reader = new TreeTaggerModelReader();
+		if (aCharsetName != null) {
+			reader.setEncoding(aCharsetName);
+		}
+		return reader.read(aFile);
+	}
+
 	/**
 	 * Read a model from an URL.
 	 * 
@@ -0,0 +1,516 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe pool of TreeTagger processes. A {@link TreeTaggerWrapper} is not thread-safe and
+ * drives exactly one TreeTagger process. This pool maintains up to
+ * {@link #setMaxProcesses(int) a given number} of wrappers per {@link TreeTaggerSettings} and
+ * leases them to the callers of {@link #process(TreeTaggerSettings, Collection, TokenHandler)}.
+ * Wrappers are returned to the pool after use, so their TreeTagger processes remain running and
+ * can be re-used by the next caller.
+ * <p>
+ * If all processes for a setting are in use, callers block until a process becomes available
+ * or until the {@link #setLeaseTimeout(long) lease timeout} expires. How often this happens can
+ * be monitored using {@link #getSaturationCount()} and {@link #getWaitingCount()}.
+ * <p>
+ * A simple illustration of how to use this class:
+ * <pre>
+ * TreeTaggerPool&lt;String&gt; pool = new TreeTaggerPool&lt;String&gt;();
+ * TreeTaggerSettings english = new TreeTaggerSettings("/treetagger/models/english.par:iso8859-1");
+ * try {
+ *     // May be called concurrently from many threads
+ *     pool.process(english, asList("This", "is", "a", "test", "."), handler);
+ * }
+ * finally {
+ *     pool.destroy();
+ * }
+ * </pre>
+ *
+ * @author Richard Eckart de Castilho
+ *
+ * @param <O> the token type.
+ */
+public
+class TreeTaggerPool<O>
+implements AutoCloseable
+{
+	private final ConcurrentMap<TreeTaggerSettings, Slot<O>> _slots =
+			new ConcurrentHashMap<TreeTaggerSettings, Slot<O>>();
+
+	private volatile int _maxProcesses = Runtime.getRuntime().availableProcessors();
+	private volatile long _leaseTimeout = -1;
+	private volatile boolean _destroyed = false;
+
+	private volatile TokenAdapter<O> _adapter = null;
+	private volatile ModelResolver _modelResolver = null;
+	private volatile ExecutableResolver _exeResolver = null;
+	private volatile PlatformDetector _platform = null;
+	private volatile boolean _performanceMode = false;
+	private volatile boolean _strictMode = true;
+
+	private final AtomicInteger _waiting = new AtomicInteger();
+	private final AtomicLong _leases = new AtomicLong();
+	private final AtomicLong _saturationCount = new AtomicLong();
+
+	/**
+	 * Set the maximal number of TreeTagger processes maintained per {@link TreeTaggerSettings}.
+	 * Per default, this is the number of available processors. Changing this value only affects
+	 * settings which have not been used yet.
+	 *
+	 * @param aMaxProcesses the maximal number of processes per setting.
+	 */
+	public
+	void setMaxProcesses(
+			final int aMaxProcesses)
+	{
+		if (aMaxProcesses < 1) {
+			throw new IllegalArgumentException("At least one process is required");
+		}
+		_maxProcesses = aMaxProcesses;
+	}
+
+	/**
+	 * Get the maximal number of TreeTagger processes maintained per {@link TreeTaggerSettings}.
+	 *
+	 * @return the maximal number of processes per setting.
+	 */
+	public
+	int getMaxProcesses()
+	{
+		return _maxProcesses;
+	}
+
+	/**
+	 * Set the maximal time in milliseconds to wait for a process to become available. A
+	 * negative value causes callers to wait indefinitely, which is the default.
+	 *
+	 * @param aLeaseTimeout the timeout in milliseconds.
+	 */
+	public
+	void setLeaseTimeout(
+			final long aLeaseTimeout)
+	{
+		_leaseTimeout = aLeaseTimeout;
+	}
+
+	/**
+	 * Get the maximal time in milliseconds to wait for a process to become available.
+	 *
+	 * @return the timeout in milliseconds.
+	 */
+	public
+	long getLeaseTimeout()
+	{
+		return _leaseTimeout;
+	}
+
+	/**
+	 * Set a {@link TokenAdapter} used by all pooled wrappers.
+	 *
+	 * @param aAdapter the adapter.
+	 * @see TreeTaggerWrapper#setAdapter(TokenAdapter)
+	 */
+	public
+	void setAdapter(
+			final TokenAdapter<O> aAdapter)
+	{
+		_adapter = aAdapter;
+	}
+
+	/**
+	 * Set a custom model resolver used by all pooled wrappers. The resolver is shared by all
+	 * wrappers and must therefore be thread-safe.
+	 *
+	 * @param aModelProvider a model resolver.
+	 * @see TreeTaggerWrapper#setModelProvider(ModelResolver)
+	 */
+	public
+	void setModelProvider(
+			final ModelResolver aModelProvider)
+	{
+		_modelResolver = aModelProvider;
+	}
+
+	/**
+	 * Set a custom executable resolver used by all pooled wrappers. The resolver is shared by all
+	 * wrappers and must therefore be thread-safe. It is destroyed when the pool is destroyed.
+	 *
+	 * @param aExeProvider a executable resolver.
+	 * @see TreeTaggerWrapper#setExecutableProvider(ExecutableResolver)
+	 */
+	public
+	void setExecutableProvider(
+			final ExecutableResolver aExeProvider)
+	{
+		_exeResolver = aExeProvider;
+	}
+
+	/**
+	 * Set platform information used by all pooled wrappers.
+	 *
+	 * @param aPlatform the platform information.
+	 * @see TreeTaggerWrapper#setPlatformDetector(PlatformDetector)
+	 */
+	public
+	void setPlatformDetector(
+			final PlatformDetector aPlatform)
+	{
+		_platform = aPlatform;
+	}
+
+	/**
+	 * Set the performance mode of all pooled wrappers.
+	 *
+	 * @param aPerformanceMode on/off.
+	 * @see TreeTaggerWrapper#setPerformanceMode(boolean)
+	 */
+	public
+	void setPerformanceMode(
+			final boolean aPerformanceMode)
+	{
+		_performanceMode = aPerformanceMode;
+	}
+
+	/**
+	 * Set the strict mode of all pooled wrappers.
+	 *
+	 * @param aStrictMode on/off.
+	 * @see TreeTaggerWrapper#setStrictMode(boolean)
+	 */
+	public
+	void setStrictMode(
+			final boolean aStrictMode)
+	{
+		_strictMode = aStrictMode;
+	}
+
+	/**
+	 * Process the given list of token objects using a TreeTagger process started with the given
+	 * settings. This method may be called concurrently.
+	 *
+	 * @param aSettings the settings.
+	 * @param aTokenList the token objects.
+	 * @param aHandler the handler receiving the analyzed tokens.
+	 * @throws IOException if there is a problem providing the model or executable.
+	 * @throws TreeTaggerException if there is a problem communication with TreeTagger, if no
+	 *     process became available within the lease timeout or if the pool has been destroyed.
+	 */
+	public
+	void process(
+			final TreeTaggerSettings aSettings,
+			final Collection<O> aTokenList,
+			final TokenHandler<O> aHandler)
+	throws IOException, TreeTaggerException
+	{
+		final Slot<O> slot = getSlot(aSettings);
+		final TreeTaggerWrapper<O> wrapper = lease(aSettings, slot);
+		boolean ok = false;
+		try {
+			wrapper.setHandler(aHandler);
+			wrapper.process(aTokenList);
+			ok = true;
+		}
+		finally {
+			wrapper.setHandler(null);
+			release(slot, wrapper, ok);
+		}
+	}
+
+	/**
+	 * Get the number of processes currently leased to callers.
+	 *
+	 * @return the number of busy processes.
+	 */
+	public
+	int getActiveCount()
+	{
+		int active = 0;
+		for (Slot<O> slot : _slots.values()) {
+			active += slot.active.get();
+		}
+		return active;
+	}
+
+	/**
+	 * Get the number of processes currently idle in the pool.
+	 *
+	 * @return the number of idle processes.
+	 */
+	public
+	int getIdleCount()
+	{
+		int idle = 0;
+		for (Slot<O> slot : _slots.values()) {
+			idle += slot.idle.size();
+		}
+		return idle;
+	}
+
+	/**
+	 * Get the number of callers currently waiting for a process to become available.
+	 *
+	 * @return the number of waiting callers.
+	 */
+	public
+	int getWaitingCount()
+	{
+		return _waiting.get();
+	}
+
+	/**
+	 * Get the total number of leases handed out by this pool.
+	 *
+	 * @return the number of leases.
+	 */
+	public
+	long getLeaseCount()
+	{
+		return _leases.get();
+	}
+
+	/**
+	 * Get the number of leases for which the caller had to wait because all processes for the
+	 * requested settings were busy. If this number grows in relation to {@link #getLeaseCount()},
+	 * the pool is saturated and {@link #setMaxProcesses(int)} should be increased.
+	 *
+	 * @return the number of leases that had to wait.
+	 */
+	public
+	long getSaturationCount()
+	{
+		return _saturationCount.get();
+	}
+
+	/**
+	 * Get the fraction of processes currently busy for the given settings.
+	 *
+	 * @param aSettings the settings.
+	 * @return a value between {@code 0.0} (idle) and {@code 1.0} (saturated).
+	 */
+	public
+	double getSaturation(
+			final TreeTaggerSettings aSettings)
+	{
+		Slot<O> slot = _slots.get(aSettings);
+		if (slot == null) {
+			return 0.0;
+		}
+		return ((double) slot.active.get()) / slot.capacity;
+	}
+
+	/**
+	 * Stop all idle TreeTagger processes and release all resources. Processes which are currently
+	 * leased are stopped when they are returned to the pool.
+	 */
+	public
+	void destroy()
+	{
+		_destroyed = true;
+
+		for (Slot<O> slot : _slots.values()) {
+			TreeTaggerWrapper<O> wrapper;
+			while ((wrapper = slot.idle.pollFirst()) != null) {
+				dispose(wrapper);
+			}
+		}
+
+		if (_exeResolver != null) {
+			_exeResolver.destroy();
+		}
+	}
+
+	/**
+	 * Same as {@link #destroy()}.
+	 */
+	public
+	void close()
+	{
+		destroy();
+	}
+
+	private
+	Slot<O> getSlot(
+			final TreeTaggerSettings aSettings)
+	{
+		Slot<O> slot = _slots.get(aSettings);
+		if (slot == null) {
+			Slot<O> newSlot = new Slot<O>(_maxProcesses);
+			slot = _slots.putIfAbsent(aSettings, newSlot);
+			if (slot == null) {
+				slot = newSlot;
+			}
+		}
+		return slot;
+	}
+
+	private
+	TreeTaggerWrapper<O> lease(
+			final TreeTaggerSettings aSettings,
+			final Slot<O> aSlot)
+	throws IOException, TreeTaggerException
+	{
+		if (_destroyed) {
+			throw new TreeTaggerException("Pool has been destroyed");
+		}
+
+		if (!aSlot.permits.tryAcquire()) {
+			_saturationCount.incrementAndGet();
+			_waiting.incrementAndGet();
+			try {
+				boolean acquired;
+				if (_leaseTimeout < 0) {
+					aSlot.permits.acquire();
+					acquired = true;
+				}
+				else {
+					acquired = aSlot.permits.tryAcquire(_leaseTimeout, TimeUnit.MILLISECONDS);
+				}
+
+				if (!acquired) {
+					throw new TreeTaggerException("No TreeTagger process for " + aSettings
+							+ " became available within " + _leaseTimeout + "ms");
+				}
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TreeTaggerException("Interrupted while waiting for a TreeTagger process",
+						e);
+			}
+			finally {
+				_waiting.decrementAndGet();
+			}
+		}
+
+		_leases.incrementAndGet();
+		aSlot.active.incrementAndGet();
+
+		// Prefer the most recently used wrapper - its process is most likely to be warm.
+		TreeTaggerWrapper<O> wrapper = aSlot.idle.pollFirst();
+		if (wrapper == null) {
+			boolean ok = false;
+			try {
+				wrapper = createWrapper(aSettings);
+				ok = true;
+			}
+			finally {
+				if (!ok) {
+					aSlot.active.decrementAndGet();
+					aSlot.permits.release();
+				}
+			}
+		}
+
+		return wrapper;
+	}
+
+	private
+	void release(
+			final Slot<O> aSlot,
+			final TreeTaggerWrapper<O> aWrapper,
+			final boolean aReusable)
+	{
+		try {
+			if (aReusable && !_destroyed) {
+				aSlot.idle.offerFirst(aWrapper);
+				// destroy() may have drained the idle wrappers after the check above. Whichever
+				// side removes the wrapper from the idle queue disposes it.
+				if (_destroyed && aSlot.idle.remove(aWrapper)) {
+					dispose(aWrapper);
+				}
+			}
+			else {
+				// A failed wrapper has already stopped its process. Do not re-use it, a fresh
+				// wrapper is created by the next lease.
+				dispose(aWrapper);
+			}
+		}
+		finally {
+			aSlot.active.decrementAndGet();
+			aSlot.permits.release();
+		}
+	}
+
+	/**
+	 * Create a new wrapper for the given settings. Override this method to further customize the
+	 * pooled wrappers.
+	 *
+	 * @param aSettings the settings.
+	 * @return a new wrapper.
+	 * @throws IOException if the model can not be found.
+	 */
+	protected
+	TreeTaggerWrapper<O> createWrapper(
+			final TreeTaggerSettings aSettings)
+	throws IOException
+	{
+		TreeTaggerWrapper<O> wrapper = new TreeTaggerWrapper<O>();
+		if (_platform != null) {
+			wrapper.setPlatformDetector(_platform);
+		}
+		if (_modelResolver != null) {
+			wrapper.setModelProvider(_modelResolver);
+		}
+		if (_exeResolver != null) {
+			wrapper.setExecutableProvider(_exeResolver);
+		}
+		wrapper.setAdapter(_adapter);
+		wrapper.setPerformanceMode(_performanceMode);
+		wrapper.setStrictMode(_strictMode);
+		aSettings.applyTo(wrapper);
+		return wrapper;
+	}
+
+	private
+	void dispose(
+			final TreeTaggerWrapper<O> aWrapper)
+	{
+		// Do not call destroy() on the wrapper. That would also destroy the executable resolver
+		// which may be shared by all wrappers in the pool. Reaping stops the processes and
+		// destroys the models, but only destroys the resolver if the wrapper created it itself.
+		aWrapper.reap();
+	}
+
+	private static
+	class Slot<O>
+	{
+		final int capacity;
+		final Semaphore permits;
+		final AtomicInteger active = new AtomicInteger();
+		final LinkedBlockingDeque<TreeTaggerWrapper<O>> idle =
+				new LinkedBlockingDeque<TreeTaggerWrapper<O>>();
+
+		Slot(
+				final int aCapacity)
+		{
+			capacity = aCapacity;
+			permits = new Semaphore(aCapacity, true);
+		}
+	}
+}
@@ -0,0 +1,855 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.annolab.tt4j.Util.join;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A running TreeTagger process together with the threads used to communicate with it. The
+ * threads are started once together with the process and live as long as the process does.
+ * Work is passed to them as {@link Job jobs}: the writer thread sends the tokens of one job after
+ * the other to the process, while the reader thread receives the analyzed tokens for the jobs in
+ * the same order. A third thread consumes the stderr output of the process so it cannot block.
+ * <p>
+ * A job consists of one or more texts. Each text is framed by a start and an end marker. The
+ * flush sequence which pushes the last tokens through TreeTagger is sent at the end of the job
+ * and, if the job {@link Job#isBlocked() cannot continue} until the output of the previous texts
+ * has been read, after a text.
+ * <p>
+ * The threads do not hold a reference to the {@link TreeTaggerWrapper} which started the
+ * process - only to the job they are currently working on.
+ *
+ * @author Richard Eckart de Castilho
+ */
+class TreeTaggerProcess
+{
+	// A tag to identify begin/end of a text in the data flow.
+	// (avoid to restart TreeTagger process each time)
+	static final String STARTOFTEXT = "<This-is-the-start-of-the-text />";
+	static final String ENDOFTEXT = "<This-is-the-end-of-the-text />";
+
+	private final Process _proc;
+	private final String _procCmd;
+	private final String _encoding;
+	private final Charset _charset;
+	private final String _flushSequence;
+	private final boolean _sgmlMode;
+	private final byte[] _startOfText;
+	private final byte[] _endOfText;
+	private final ByteRingBuffer _recentOutput = new ByteRingBuffer(1024);
+	private final ByteRingBuffer _errorOutput = new ByteRingBuffer(8192);
+	private final int _tagCount;
+
+	private final BlockingQueue<Job> _writeQueue = new LinkedBlockingQueue<Job>();
+	private final BlockingQueue<Job> _readQueue = new LinkedBlockingQueue<Job>();
+
+	private final Thread _readerThread;
+	private final Thread _writerThread;
+	private final Thread _gobblerThread;
+	private final StreamGobbler _gobbler;
+
+	private volatile boolean _stopped = false;
+	private volatile Job _readerJob = null;
+	private volatile long _shutdownTimeout = 1000;
+
+	// Used only by the writer thread
+	private final LineEncoder _out;
+
+	/**
+	 * Start a new TreeTagger process.
+	 *
+	 * @param aCmd the command line.
+	 * @param aEncoding the encoding used to communicate with the process.
+	 * @param aFlushSequence the flush sequence sent after each job.
+	 * @param aSgmlMode whether TreeTagger has been started in SGML mode.
+	 * @param aTagset the tagset of the model. The tags are numbered in this order.
+	 * @param aMetrics receives the number of bytes sent to and received from the process.
+	 * @throws IOException if the process cannot be started.
+	 */
+	TreeTaggerProcess(
+			final List<String> aCmd,
+			final String aEncoding,
+			final String aFlushSequence,
+			final boolean aSgmlMode,
+			final List<String> aTagset,
+			final TreeTaggerMetrics aMetrics)
+	throws IOException
+	{
+		_procCmd = join(aCmd, " ");
+		_encoding = aEncoding;
+		_charset = Charset.forName(aEncoding);
+		_flushSequence = aFlushSequence;
+		_sgmlMode = aSgmlMode;
+
+		final ProcessBuilder pb = new ProcessBuilder();
+		pb.command(aCmd);
+		_proc = pb.start();
+
+		// Tokens are encoded directly into a byte buffer which is sent to the process only when
+		// it is full or when the writer reaches a point where TreeTagger has to produce output.
+		_out = new LineEncoder(new MeteredOutputStream(_proc.getOutputStream(), aMetrics),
+				_charset, 65536);
+
+		// The markers are recognized in the raw output. In SGML mode the output record consists
+		// only of the marker, otherwise TreeTagger appends a tab and the tag.
+		Charset charset = _charset;
+		_startOfText = (_sgmlMode ? STARTOFTEXT : STARTOFTEXT + '\t').getBytes(charset);
+		_endOfText = (_sgmlMode ? ENDOFTEXT : ENDOFTEXT + '\t').getBytes(charset);
+
+		// Seed the tag table with the tagset, so the tag indexes correspond to the model.
+		TagTable tags = new TagTable(charset);
+		for (String tag : aTagset) {
+			tags.add(tag);
+		}
+		_tagCount = tags.size();
+
+		// One thread reads the output.
+		_readerThread = new Thread(new Reader(new RecordReader(new MeteredInputStream(
+				_proc.getInputStream(), aMetrics), charset, tags, _recentOutput)));
+		_readerThread.setName("TT4J StdOut Reader");
+		_readerThread.setDaemon(true);
+
+		// One thread consumes stderr so we do not get a deadlock.
+		_gobbler = new StreamGobbler(_proc.getErrorStream());
+		_gobblerThread = new Thread(_gobbler);
+		_gobblerThread.setName("TT4J StdErr Reader");
+		_gobblerThread.setDaemon(true);
+
+		// One thread writes the input.
+		_writerThread = new Thread(new Writer());
+		_writerThread.setName("TT4J StdIn Writer");
+		_writerThread.setDaemon(true);
+
+		_readerThread.start();
+		_gobblerThread.start();
+		_writerThread.start();
+	}
+
+	/**
+	 * Queue a job for processing. Jobs are processed in the order in which they are submitted.
+	 *
+	 * @param aJob the job.
+	 */
+	synchronized
+	void submit(
+			final Job aJob)
+	{
+		if (_stopped) {
+			aJob.failed(new IOException("The TreeTagger process has been stopped"));
+			return;
+		}
+
+		_readQueue.add(aJob);
+		_writeQueue.add(aJob);
+	}
+
+	/**
+	 * Set the time to wait for the process to terminate when it is stopped before it is killed.
+	 *
+	 * @param aMillis the timeout in milliseconds.
+	 */
+	void setShutdownTimeout(
+			final long aMillis)
+	{
+		_shutdownTimeout = aMillis;
+	}
+
+	/**
+	 * Stop the process and terminate the communication threads. Jobs which are still pending
+	 * fail. This method returns when the process has terminated.
+	 */
+	void stop()
+	{
+		stop(new IOException("The TreeTagger process has been stopped"));
+	}
+
+	/**
+	 * Stop the process and terminate the communication threads. Jobs which are still pending
+	 * fail with the given cause. This is also called by the communication threads if they fail,
+	 * because then the state of the streams is unknown and the process cannot be used anymore.
+	 *
+	 * @param aCause the cause.
+	 */
+	private
+	void stop(
+			final Throwable aCause)
+	{
+		synchronized (this) {
+			if (_stopped) {
+				return;
+			}
+
+			_stopped = true;
+			_gobbler.done();
+			// The writer closes stdin when it ends.
+			_writerThread.interrupt();
+			_readerThread.interrupt();
+
+			fail(aCause);
+		}
+
+		terminate();
+	}
+
+	/**
+	 * Wait for the process to terminate and release its streams. TreeTagger terminates by itself
+	 * at the end of its input. If it does not do so within the shutdown timeout, e.g. because it
+	 * hangs, it is asked to terminate and then killed. Waiting for the process also makes sure it
+	 * does not linger as a zombie.
+	 */
+	private
+	void terminate()
+	{
+		if (Thread.currentThread() == _writerThread) {
+			Util.close(_proc.getOutputStream());
+		}
+
+		// Output not read yet is not needed anymore. Closing stdout makes sure that TreeTagger
+		// cannot block while writing it.
+		Util.close(_proc.getInputStream());
+
+		boolean interrupted = false;
+		try {
+			if (!_proc.waitFor(_shutdownTimeout, MILLISECONDS)) {
+				_proc.destroy();
+				if (!_proc.waitFor(_shutdownTimeout, MILLISECONDS)) {
+					_proc.destroyForcibly().waitFor();
+				}
+			}
+		}
+		catch (final InterruptedException e) {
+			interrupted = true;
+			_proc.destroyForcibly();
+		}
+
+		// Let the stderr thread collect the last output, but do not wait for processes which
+		// TreeTagger may have started and which still hold the stream.
+		try {
+			_gobblerThread.join(100);
+		}
+		catch (final InterruptedException e) {
+			interrupted = true;
+		}
+		Util.close(_proc.getErrorStream());
+		Util.close(_proc.getOutputStream());
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Check if the process has been stopped, either explicitly or because communicating with it
+	 * failed.
+	 *
+	 * @return whether the process has been stopped.
+	 */
+	boolean isStopped()
+	{
+		return _stopped;
+	}
+
+	/**
+	 * Get the exit value of the process.
+	 *
+	 * @return the exit value or {@code null} if the process is still running.
+	 */
+	Integer exitValue()
+	{
+		try {
+			return _proc.exitValue();
+		}
+		catch (final IllegalThreadStateException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the command line used to start the process.
+	 *
+	 * @return the command line.
+	 */
+	String getCommand()
+	{
+		return _procCmd;
+	}
+
+	/**
+	 * Get the number of tags in the tagset of the model. Tags with an index equal to or larger
+	 * than this number have been encountered in the output, but are not part of the tagset.
+	 *
+	 * @return the number of tags.
+	 */
+	int getTagCount()
+	{
+		return _tagCount;
+	}
+
+	/**
+	 * Get the most recent output of the process, e.g. for error messages.
+	 *
+	 * @return the last bytes received from the process, decoded.
+	 */
+	String getRecentOutput()
+	{
+		return _recentOutput.toString(_charset);
+	}
+
+	/**
+	 * Get the most recent stderr output of the process.
+	 *
+	 * @return the last bytes of the stderr output, decoded.
+	 */
+	String getErrorOutput()
+	{
+		return _errorOutput.toString(_charset);
+	}
+
+	/**
+	 * Get an exception caught while consuming the stderr output of the process.
+	 *
+	 * @return the exception or {@code null}.
+	 */
+	Throwable getException()
+	{
+		return _gobbler.getException();
+	}
+
+	/**
+	 * Send a line to the process. To be used only by {@link Job#write(int, TreeTaggerProcess)}.
+	 * The line is buffered and actually sent when the buffer is full or when the writer thread
+	 * {@link #flush() flushes} after sending the flush sequence.
+	 *
+	 * @param aLine the line.
+	 * @throws IOException if the line cannot be sent.
+	 */
+	void send(
+			final String aLine)
+	throws IOException
+	{
+		_out.write(aLine);
+	}
+
+	/**
+	 * Send all buffered lines to the process.
+	 *
+	 * @throws IOException if the lines cannot be sent.
+	 */
+	private
+	void flush()
+	throws IOException
+	{
+		_out.flush();
+	}
+
+	/**
+	 * Create the exception reported when the process is not available anymore.
+	 *
+	 * @param aJob the job being processed.
+	 * @param aCause the cause or {@code null}.
+	 * @return the exception.
+	 */
+	private
+	IOException died(
+			final Job aJob,
+			final Throwable aCause)
+	{
+		// Give the stderr thread a moment to collect the last words of the process.
+		try {
+			_gobblerThread.join(100);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		String errorOutput = getErrorOutput();
+		return new IOException(
+				"The TreeTagger process has died:\n" + aJob.getStatus() +
+				(errorOutput.length() > 0 ? "Error output: [" + errorOutput + "]\n" : "") +
+				"\nMake sure the following comand (in parentheses) works when " +
+				"running it from the command line: [echo \"test\" | " +
+				_procCmd + "]", aCause);
+	}
+
+	/**
+	 * Fail the job currently being read as well as all pending jobs.
+	 *
+	 * @param aException the cause.
+	 */
+	private
+	void fail(
+			final Throwable aException)
+	{
+		Job job = _readerJob;
+		if (job != null) {
+			job.failed(aException);
+		}
+		failPending(aException);
+	}
+
+	private
+	void failPending(
+			final Throwable aException)
+	{
+		Job job;
+		while ((job = _readQueue.poll()) != null) {
+			job.failed(aException);
+		}
+		_writeQueue.clear();
+	}
+
+	/**
+	 * A unit of work processed by the TreeTagger process. The reader, writer and stderr threads
+	 * signal the completion or failure of the job directly, so the thread waiting for the job in
+	 * {@link #await()} or on {@link #getCompletion()} is woken up immediately.
+	 */
+	static abstract
+	class Job
+	{
+		private final CompletableFuture<Void> _done = new CompletableFuture<Void>();
+		private volatile Throwable _exception;
+
+		// Set by the writer thread before the end marker of the last text is sent.
+		private volatile int _lastText = -1;
+
+		/**
+		 * Write the tokens of one text of this job. Called by the writer thread. The start and
+		 * end markers and the flush sequence are sent by the process.
+		 *
+		 * @param aText the index of the text.
+		 * @param aProcess the process to send the tokens to via
+		 *     {@link TreeTaggerProcess#send(String)}.
+		 * @return whether more texts follow.
+		 * @throws Exception if the tokens cannot be sent.
+		 */
+		abstract
+		boolean write(
+				int aText,
+				TreeTaggerProcess aProcess)
+		throws Exception;
+
+		/**
+		 * Check if the writer cannot continue with the next text until the output for the
+		 * texts already written has been read. In this case the flush sequence is sent after
+		 * the current text, so TreeTagger does not hold back the output of the last tokens.
+		 *
+		 * @return whether the job is blocked.
+		 */
+		boolean isBlocked()
+		{
+			return false;
+		}
+
+		/**
+		 * Called by the reader thread when the start marker of a text has been read.
+		 *
+		 * @param aText the index of the text.
+		 * @throws Exception if the text cannot be handled.
+		 */
+		abstract
+		void startOfText(
+				int aText)
+		throws Exception;
+
+		/**
+		 * Handle one record produced by TreeTagger for the current text of this job. Called by
+		 * the reader thread.
+		 *
+		 * @param aRecord the reader positioned at the record.
+		 * @throws Exception if the record cannot be handled.
+		 */
+		abstract
+		void read(
+				RecordReader aRecord)
+		throws Exception;
+
+		/**
+		 * Get the status information to be included in error messages.
+		 *
+		 * @return the status information.
+		 */
+		abstract
+		String getStatus();
+
+		/**
+		 * Called by the reader thread when all records of the job have been read.
+		 */
+		void completed()
+		{
+			_done.complete(null);
+		}
+
+		/**
+		 * Called when the job could not be completed. May be called more than once, but only
+		 * the first exception is retained.
+		 *
+		 * @param aException the cause.
+		 */
+		synchronized
+		void failed(
+				final Throwable aException)
+		{
+			if (_exception == null) {
+				_exception = aException;
+			}
+			_done.completeExceptionally(_exception);
+		}
+
+		/**
+		 * Wait until the job has completed or failed. Interrupts do not abort the wait, but the
+		 * interrupt status of the thread is restored before returning.
+		 */
+		void await()
+		{
+			boolean interrupted = false;
+			while (true) {
+				try {
+					_done.get();
+					break;
+				}
+				catch (final ExecutionException e) {
+					// Available via getException()
+					break;
+				}
+				catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Check if the job has completed or failed.
+		 *
+		 * @return whether the job is done.
+		 */
+		boolean isDone()
+		{
+			return _done.isDone();
+		}
+
+		/**
+		 * Get a future which completes when the job completes or fails. Note that stages
+		 * depending on this future are executed by the reader thread unless an asynchronous
+		 * variant is used.
+		 *
+		 * @return the future.
+		 */
+		CompletableFuture<Void> getCompletion()
+		{
+			return _done;
+		}
+
+		/**
+		 * Get the exception that caused the job to fail.
+		 *
+		 * @return the exception or {@code null} if the job did not fail.
+		 */
+		Throwable getException()
+		{
+			return _exception;
+		}
+	}
+
+	private
+	class Reader
+	implements Runnable
+	{
+		private final RecordReader in;
+
+		public
+		Reader(
+				final RecordReader aIn)
+		{
+			in = aIn;
+		}
+
+		public
+		void run()
+		{
+			Job job = null;
+			try {
+				while (!_stopped) {
+					job = _readQueue.take();
+					_readerJob = job;
+					read(job);
+					_readerJob = null;
+					job.completed();
+					job = null;
+				}
+			}
+			catch (final InterruptedException e) {
+				// Process stopped
+			}
+			catch (final Throwable e) {
+				if (job != null) {
+					job.failed(e);
+				}
+				// The state of the stream is unknown now, so we cannot continue with the next job.
+				stop(e);
+			}
+			finally {
+				_readerJob = null;
+			}
+		}
+
+		private
+		void read(
+				final Job aJob)
+		throws Exception
+		{
+			int text = -1;
+			boolean inText = false;
+			while (true) {
+				if (!in.next()) {
+					throw died(aJob, null);
+				}
+
+				if (_sgmlMode ? in.is(_startOfText) : in.startsWith(_startOfText)) {
+					inText = true;
+					text++;
+					if (TreeTaggerWrapper.TRACE) {
+						System.err.println("["+TreeTaggerProcess.this+"|TRACE] ("+text+") START ["+in.getRecord()+"]");
+					}
+					aJob.startOfText(text);
+					continue;
+				}
+
+				if (_sgmlMode ? in.is(_endOfText) : in.startsWith(_endOfText)) {
+					inText = false;
+					if (TreeTaggerWrapper.TRACE) {
+						System.err.println("["+TreeTaggerProcess.this+"|TRACE] ("+text+") COMPLETE ["+in.getRecord()+"]");
+					}
+					if (text == aJob._lastText) {
+						break;
+					}
+					continue;
+				}
+
+				if (inText) {
+					aJob.read(in);
+				}
+			}
+		}
+	}
+
+	private
+	class Writer
+	implements Runnable
+	{
+		public
+		void run()
+		{
+			Job job = null;
+			try {
+				while (!_stopped) {
+					job = _writeQueue.take();
+					int text = 0;
+					boolean more;
+					do {
+						send(STARTOFTEXT);
+						more = job.write(text, TreeTaggerProcess.this);
+						if (!more) {
+							// The reader must know that this is the last text before it sees
+							// the end marker.
+							job._lastText = text;
+						}
+						send(ENDOFTEXT);
+						if (more && job.isBlocked()) {
+							send(_flushSequence);
+							flush();
+						}
+						text++;
+					}
+					while (more);
+					send(_flushSequence);
+					flush();
+					job = null;
+				}
+			}
+			catch (final InterruptedException e) {
+				// Process stopped
+			}
+			catch (final IOException e) {
+				if (!_stopped && job != null) {
+					job.failed(died(job, e));
+				}
+				// The state of the stream is unknown now, so we cannot continue with the next job.
+				stop(e);
+			}
+			catch (final Throwable e) {
+				if (job != null) {
+					job.failed(e);
+				}
+				// The state of the stream is unknown now, so we cannot continue with the next job.
+				stop(e);
+			}
+			finally {
+				// Signal the end of the input, so TreeTagger terminates.
+				Util.close(_proc.getOutputStream());
+			}
+		}
+	}
+
+	/**
+	 * Consumes the stderr output of the process so the process cannot block on a full pipe. The
+	 * thread blocks while there is no output and ends when the process closes the stream. Only
+	 * the last bytes of the output are retained for error messages.
+	 */
+	private
+	class StreamGobbler
+	implements Runnable
+	{
+		private final InputStream in;
+		private volatile boolean done = false;
+		private volatile Throwable _exception;
+
+		public
+		StreamGobbler(
+				final InputStream aIn)
+		{
+			in = aIn;
+		}
+
+		public
+		void done()
+		{
+			done = true;
+		}
+
+		public
+		void run()
+		{
+			byte[] buffer = new byte[4096];
+			try {
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					_errorOutput.add(buffer, 0, n);
+				}
+			}
+			catch (final Throwable e) {
+				if (!done) {
+					if (TreeTaggerWrapper.TRACE) {
+						System.err.println("["+TreeTaggerProcess.this+"|TRACE] Last seen from TreeTagger ["
+								+getErrorOutput()+"]");
+					}
+					_exception = e;
+					stop(e);
+				}
+			}
+		}
+
+		public
+		Throwable getException() {
+			return _exception;
+		}
+	}
+
+	/**
+	 * Records the bytes sent to the process and the time spent waiting for the process to accept
+	 * them. The writer passes large chunks, so measuring each write is cheap.
+	 */
+	private static
+	class MeteredOutputStream
+	extends FilterOutputStream
+	{
+		private final TreeTaggerMetrics metrics;
+
+		public
+		MeteredOutputStream(
+				final OutputStream aOut,
+				final TreeTaggerMetrics aMetrics)
+		{
+			super(aOut);
+			metrics = aMetrics;
+		}
+
+		@Override
+		public
+		void write(
+				final byte[] aBuffer,
+				final int aOffset,
+				final int aLength)
+		throws IOException
+		{
+			long start = System.nanoTime();
+			out.write(aBuffer, aOffset, aLength);
+			metrics.written(aLength, System.nanoTime() - start);
+		}
+
+		@Override
+		public
+		void flush()
+		throws IOException
+		{
+			long start = System.nanoTime();
+			out.flush();
+			metrics.written(0, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Records the bytes received from the process and the time spent waiting for them.
+	 */
+	private static
+	class MeteredInputStream
+	extends FilterInputStream
+	{
+		private final TreeTaggerMetrics metrics;
+
+		public
+		MeteredInputStream(
+				final InputStream aIn,
+				final TreeTaggerMetrics aMetrics)
+		{
+			super(aIn);
+			metrics = aMetrics;
+		}
+
+		@Override
+		public
+		int read(
+				final byte[] aBuffer,
+				final int aOffset,
+				final int aLength)
+		throws IOException
+		{
+			long start = System.nanoTime();
+			int n = in.read(aBuffer, aOffset, aLength);
+			metrics.read(n, System.nanoTime() - start);
+			return n;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import static org.annolab.tt4j.TreeTaggerWrapper.ARG_LEMMA;
+import static org.annolab.tt4j.TreeTaggerWrapper.ARG_NO_UNKNOWN;
+import static org.annolab.tt4j.TreeTaggerWrapper.ARG_QUIET;
+import static org.annolab.tt4j.TreeTaggerWrapper.ARG_SGML;
+import static org.annolab.tt4j.TreeTaggerWrapper.ARG_TOKEN;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable set of the settings that determine how a TreeTagger process is started: the model
+ * name, the arguments, epsilon, the probability threshold and the hyphen heuristics. Two
+ * processes started with equal settings are interchangeable, so instances of this class can be
+ * used as keys to identify processes.
+ *
+ * @author Richard Eckart de Castilho
+ */
+public final
+class TreeTaggerSettings
+{
+	private static final String[] DEFAULT_ARGUMENTS = { ARG_QUIET, ARG_NO_UNKNOWN, ARG_SGML,
+			ARG_TOKEN, ARG_LEMMA };
+
+	private final String _modelName;
+	private final String[] _arguments;
+	private final Double _epsilon;
+	private final Double _probabilityThreshold;
+	private final boolean _hyphenHeuristics;
+
+	private final int _hashCode;
+
+	/**
+	 * Settings for the given model using the default arguments.
+	 *
+	 * @param aModelName the model name as understood by the {@link ModelResolver}.
+	 */
+	public
+	TreeTaggerSettings(
+			final String aModelName)
+	{
+		this(aModelName, DEFAULT_ARGUMENTS, null, null, false);
+	}
+
+	/**
+	 * Settings for the given model.
+	 *
+	 * @param aModelName the model name as understood by the {@link ModelResolver}.
+	 * @param aArguments the arguments passed to the TreeTagger executable.
+	 * @param aEpsilon the minimal tag frequency or {@code null}.
+	 * @param aProbabilityThreshold the probability threshold or {@code null}. Negative values
+	 *     are treated like {@code null}.
+	 * @param aHyphenHeuristics whether to use the hyphen heuristics.
+	 */
+	public
+	TreeTaggerSettings(
+			final String aModelName,
+			final String[] aArguments,
+			final Double aEpsilon,
+			final Double aProbabilityThreshold,
+			final boolean aHyphenHeuristics)
+	{
+		if (aModelName == null) {
+			throw new IllegalArgumentException("Model name must not be null");
+		}
+
+		_modelName = aModelName;
+		_arguments = aArguments != null ? aArguments.clone() : DEFAULT_ARGUMENTS.clone();
+		_epsilon = aEpsilon;
+		_probabilityThreshold = (aProbabilityThreshold != null && aProbabilityThreshold < 0.0) ?
+				null : aProbabilityThreshold;
+		_hyphenHeuristics = aHyphenHeuristics;
+
+		int h = _modelName.hashCode();
+		h = 31 * h + Arrays.hashCode(_arguments);
+		h = 31 * h + (_epsilon != null ? _epsilon.hashCode() : 0);
+		h = 31 * h + (_probabilityThreshold != null ? _probabilityThreshold.hashCode() : 0);
+		h = 31 * h + (_hyphenHeuristics ? 1 : 0);
+		_hashCode = h;
+	}
+
+	/**
+	 * Get the model name.
+	 *
+	 * @return the model name.
+	 */
+	public
+	String getModelName()
+	{
+		return _modelName;
+	}
+
+	/**
+	 * Get the arguments passed to the TreeTagger executable.
+	 *
+	 * @return a copy of the arguments.
+	 */
+	public
+	String[] getArguments()
+	{
+		return _arguments.clone();
+	}
+
+	/**
+	 * Get minimal tag frequency.
+	 *
+	 * @return epsilon.
+	 */
+	public
+	Double getEpsilon()
+	{
+		return _epsilon;
+	}
+
+	/**
+	 * Get the probability threshold.
+	 *
+	 * @return the threshold or {@code null} if probabilities are not requested.
+	 */
+	public
+	Double getProbabilityThreshold()
+	{
+		return _probabilityThreshold;
+	}
+
+	/**
+	 * Get hyphen heuristics mode setting.
+	 *
+	 * @return whether to use hyphen heuristics
+	 */
+	public
+	boolean getHyphenHeuristics()
+	{
+		return _hyphenHeuristics;
+	}
+
+	/**
+	 * Configure the given wrapper with these settings.
+	 *
+	 * @param aWrapper the wrapper.
+	 * @throws IOException if the model can not be found.
+	 */
+	public
+	void applyTo(
+			final TreeTaggerWrapper<?> aWrapper)
+	throws IOException
+	{
+		aWrapper.setArguments(getArguments());
+		aWrapper.setEpsilon(_epsilon);
+		aWrapper.setProbabilityThreshold(_probabilityThreshold);
+		aWrapper.setHyphenHeuristics(_hyphenHeuristics);
+		aWrapper.setModel(_modelName);
+	}
+
+	@Override
+	public
+	boolean equals(
+			final Object aOther)
+	{
+		if (this == aOther) {
+			return true;
+		}
+		if (!(aOther instanceof TreeTaggerSettings)) {
+			return false;
+		}
+
+		final TreeTaggerSettings other = (TreeTaggerSettings) aOther;
+		return _hashCode == other._hashCode
+				&& _hyphenHeuristics == other._hyphenHeuristics
+				&& _modelName.equals(other._modelName)
+				&& Arrays.equals(_arguments, other._arguments)
+				&& (_epsilon == null ? other._epsilon == null : _epsilon.equals(other._epsilon))
+				&& (_probabilityThreshold == null ? other._probabilityThreshold == null :
+						_probabilityThreshold.equals(other._probabilityThreshold));
+	}
+
+	@Override
+	public
+	int hashCode()
+	{
+		return _hashCode;
+	}
+
+	@Override
+	public
+	String toString()
+	{
+		return "[" + _modelName + "|" + Util.join(_arguments, " ") + "|eps=" + _epsilon
+				+ "|threshold=" + _probabilityThreshold + "|hyphen=" + _hyphenHeuristics + "]";
+	}
+}
@@ -19,24 +19,28 @@
 package org.annolab.tt4j;
 
 import static java.util.Arrays.asList;
-import static org.annolab.tt4j.Util.join;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
-import java.lang.Thread.State;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 /**
  * Main TreeTagger wrapper class. One TreeTagger process will be created and
@@ -47,9 +51,19 @@ import java.util.regex.Pattern;
  * remains dormant while not used and only consumes some memory, but no CPU
  * while it is not used.
  * <p>
- * During analysis, two threads are used to communicate with the TreeTagger.
- * One process writes tokens to the TreeTagger process, while the other
- * receives the analyzed tokens.
+ * Three threads are used to communicate with the TreeTagger. One writes tokens
+ * to the TreeTagger process, one receives the analyzed tokens and one consumes
+ * the error output. These threads are started together with the process and
+ * are re-used for every call to {@link #process(Collection)}.
+ * <p>
+ * Using {@link #processAsync(Collection)}, multiple requests can be pipelined
+ * into the same TreeTagger process: the tokens of the next request are written
+ * while the results of the previous request are still being read.
+ * <p>
+ * Corpora which do not fit into memory can be processed using
+ * {@link #process(Iterator)}. The tokens are consumed from the source as
+ * TreeTagger processes them and only a bounded window of tokens is kept in
+ * memory.
  * <p>
  * For easy integration into application, this class takes any object containing
  * token information and either uses its {@link Object#toString()} method or
@@ -72,10 +86,13 @@ import java.util.regex.Pattern;
  * system. A custom model resolver may also be used to resolve a language code
  * (e.g. {@literal en}) to a particular model.
  * <p>
+ * The wrapper should be {@link #close() closed} when it is no longer needed, so the TreeTagger
+ * process is shut down. If a wrapper becomes unreachable without having been closed, its
+ * processes are shut down some time after it has been garbage collected.
+ * <p>
  * A simple illustration of how to use this class:
  * <pre>
- * TreeTaggerWrapper tt = new TreeTaggerWrapper&lt;String&gt;();
- * try {
+ * try (TreeTaggerWrapper&lt;String&gt; tt = new TreeTaggerWrapper&lt;String&gt;()) {
  *     tt.setModel("/treetagger/models/english.par:iso8859-1");
  *     tt.setHandler(new TokenHandler&lt;String&gt;() {
  *         void token(String token, String pos, String lemma) {
@@ -84,9 +101,6 @@ import java.util.regex.Pattern;
  *     });
  *     tt.process(asList(new String[] {"This", "is", "a", "test", "."}));
  * }
- * finally {
- *     tt.destroy();
- * }
  * </pre>
  * @author Richard Eckart de Castilho
  *
@@ -94,16 +108,12 @@ import java.util.regex.Pattern;
  */
 public
 class TreeTaggerWrapper<O>
+implements AutoCloseable
 {
 	public static boolean TRACE = false;
 
-    private final static Pattern RE_TAB			= Pattern.compile("[\\t]");
-    private final static Pattern RE_WHITESPACE	= Pattern.compile(" ");
-
-    // A tag to identify begin/end of a text in the data flow.
-    // (avoid to restart TreeTagger process each time)
-    private static final String STARTOFTEXT = "<This-is-the-start-of-the-text />";
-    private static final String ENDOFTEXT = "<This-is-the-end-of-the-text />";
+    private final static byte TAB				= '\t';
+    private final static byte SPACE				= ' ';
 
 	/**
 	 *  This is the maximal token size that TreeTagger on OS X supports (empirically determined).
@@ -111,16 +121,24 @@ class TreeTaggerWrapper<O>
     public static final int MAX_POSSIBLE_TOKEN_LENGTH = 99998;
 
 	private Model _model = null;
+	private List<String> _tagset = null;
+	private volatile TokenSanitizer _sanitizer = null;
 
-	private Process _proc = null;
-	private String  _procCmd = null;
+	private TreeTaggerProcess _proc = null;
+	private final LinkedHashMap<TreeTaggerSettings, IdleTagger> _idleTaggers =
+			new LinkedHashMap<TreeTaggerSettings, IdleTagger>();
+	private int _processCacheSize = 1;
+	// Released while holding the lock, stopped and destroyed after it has been released
+	private final List<TreeTaggerProcess> _detachedProcesses = new ArrayList<TreeTaggerProcess>();
+	private final List<Model> _detachedModels = new ArrayList<Model>();
 
 	private TokenHandler<O> _handler = null;
-	private ProbabilityHandler<O> _probabilityHandler = null;
 	private TokenAdapter<O> _adapter = null;
 	private PlatformDetector _platform = null;
 	private ModelResolver _modelResolver = null;
 	private ExecutableResolver _exeResolver = null;
+	// Only the resolver created by the wrapper itself is cleaned up by the reaper
+	private final ExecutableResolver _defaultExeResolver = new DefaultExecutableResolver();
 
 	private Double _probabilityThreshold = null;
 	private Double _epsilon = null;
@@ -134,23 +152,27 @@ class TreeTaggerWrapper<O>
 	
     private String[] _ttArgs = { ARG_QUIET, ARG_NO_UNKNOWN, ARG_SGML, ARG_TOKEN, ARG_LEMMA };
 
-	private int _numTokens = 0;
-	private int _tokensWritten = 0;
-	private O _lastTokenWritten;
-	private int _tokensRead = 0;
-	private RingBuffer _lastInToken;
-	private RingBuffer _lastOutToken;
-	private String _lastOutRecord;
+	private volatile TaggingJob _lastJob = null;
 	private int _restartCount = 0;
+	private long _shutdownTimeout = 1000;
+	private final Resources _resources = new Resources();
+	private final Reaper.Cleanable _cleanable;
+	// Whether a subclass overrides removeProblematicTokens()
+	private final boolean _customTokenFilter = overridesTokenFilter(getClass());
+	private final TreeTaggerMetrics _metrics = new TreeTaggerMetrics();
 
 	private boolean _performanceMode = false;
+	private String _replacementToken = null;
 	private boolean _strictMode = true;
 	private int _maximumTokenLength = 90000;
+	private int _streamWindowSize = 10000;
+	private boolean _eagerStart = false;
 
 	{
 		_modelResolver = new DefaultModelResolver();
-		_exeResolver = new DefaultExecutableResolver();
+		_exeResolver = _defaultExeResolver;
 		setPlatformDetector(new PlatformDetector());
+		_cleanable = Reaper.register(this, _resources);
 
 		if (!"false".equals(System.getProperty(getClass().getName()+".TRACE", "false"))) {
 			TRACE = true;
@@ -182,6 +204,42 @@ class TreeTaggerWrapper<O>
 		return _performanceMode;
 	}
 
+	/**
+	 * Set a replacement for tokens which cannot be sent to TreeTagger, e.g. because they contain
+	 * line breaks. By default such tokens are dropped and the {@link TokenHandler} is not called
+	 * for them. If a replacement is set, it is sent to TreeTagger instead and the handler is
+	 * called with the original token object, so there is exactly one callback per token. This
+	 * setting has no effect in performance mode. If a replacement is set, an overridden
+	 * {@link #removeProblematicTokens(Collection)} is not called.
+	 *
+	 * @param aReplacementToken the replacement, e.g. {@code "_"}, or {@code null} to drop
+	 *     problematic tokens.
+	 * @throws IllegalArgumentException if the replacement cannot be sent to TreeTagger itself.
+	 */
+	public
+	void setReplacementToken(
+			final String aReplacementToken)
+	{
+		// The replacement must be safe for any model encoding
+		if (aReplacementToken != null && !new TokenSanitizer("ISO-8859-1",
+				MAX_POSSIBLE_TOKEN_LENGTH).isAcceptable(aReplacementToken)) {
+			throw new IllegalArgumentException("Illegal replacement token [" + aReplacementToken
+					+ "]");
+		}
+		_replacementToken = aReplacementToken;
+	}
+
+	/**
+	 * Get the replacement for tokens which cannot be sent to TreeTagger.
+	 *
+	 * @return the replacement or {@code null} if problematic tokens are dropped.
+	 */
+	public
+	String getReplacementToken()
+	{
+		return _replacementToken;
+	}
+
 	/**
 	 * Set the maximal number of characters allowed in a token. The maximal supported token length
 	 * is determined by {@link #MAX_POSSIBLE_TOKEN_LENGTH} and the length set is automatically
@@ -194,6 +252,7 @@ class TreeTaggerWrapper<O>
 			final int maximumTokenLength)
 	{
 		_maximumTokenLength = Math.min(maximumTokenLength, MAX_POSSIBLE_TOKEN_LENGTH);
+		_sanitizer = null;
 	}
 
 	/**
@@ -207,6 +266,124 @@ class TreeTaggerWrapper<O>
 		return _maximumTokenLength;
 	}
 
+	/**
+	 * Set the maximal number of tokens held in memory by {@link #process(Iterator)}. These are
+	 * the tokens which have been sent to TreeTagger but for which no result has been received
+	 * yet. When the window is full, the wrapper pushes the pending tokens through TreeTagger
+	 * using the flush sequence of the model before it continues with the next tokens.
+	 *
+	 * @param aSize the window size.
+	 */
+	public
+	void setStreamWindowSize(
+			final int aSize)
+	{
+		if (aSize < 1) {
+			throw new IllegalArgumentException("Window size must be at least 1 but is " + aSize);
+		}
+		_streamWindowSize = aSize;
+	}
+
+	/**
+	 * Get the maximal number of tokens held in memory by {@link #process(Iterator)}.
+	 *
+	 * @return the window size.
+	 */
+	public
+	int getStreamWindowSize()
+	{
+		return _streamWindowSize;
+	}
+
+	/**
+	 * Set the time to wait for a TreeTagger process to terminate when it is shut down. The
+	 * process is asked to terminate by closing its input. If it does not terminate within this
+	 * time, it is killed. Processes started before calling this method are not affected.
+	 *
+	 * @param aMillis the timeout in milliseconds.
+	 */
+	public
+	void setShutdownTimeout(
+			final long aMillis)
+	{
+		if (aMillis < 0) {
+			throw new IllegalArgumentException("Timeout must not be negative but is " + aMillis);
+		}
+		_shutdownTimeout = aMillis;
+	}
+
+	/**
+	 * Get the time to wait for a TreeTagger process to terminate when it is shut down.
+	 *
+	 * @return the timeout in milliseconds.
+	 */
+	public
+	long getShutdownTimeout()
+	{
+		return _shutdownTimeout;
+	}
+
+	/**
+	 * Start the TreeTagger process in the background as soon as a model is set instead of on the
+	 * first call to one of the process methods. This is the same as calling {@link #warmUpAsync()}
+	 * after each call to {@code setModel}. If the background start fails, the next call to one of
+	 * the process methods tries again and reports the error. Per default this is disabled.
+	 *
+	 * @param aEagerStart on/off.
+	 */
+	public
+	void setEagerStart(
+			final boolean aEagerStart)
+	{
+		_eagerStart = aEagerStart;
+	}
+
+	/**
+	 * Get the eager start state.
+	 *
+	 * @return eager start state.
+	 */
+	public
+	boolean getEagerStart()
+	{
+		return _eagerStart;
+	}
+
+	/**
+	 * Set the number of TreeTagger processes kept running. When the model or the configuration
+	 * (arguments, epsilon, probability threshold, hyphen heuristics) is changed, the previous
+	 * process is kept running and it is used again when the previous model and configuration are
+	 * set again, e.g. when documents in different languages alternate. If more processes are
+	 * needed, the process used least recently is shut down. Each process holds its model in
+	 * memory. Per default only the current process is kept.
+	 *
+	 * @param aSize the number of processes kept, including the current one.
+	 */
+	public
+	void setProcessCacheSize(
+			final int aSize)
+	{
+		if (aSize < 1) {
+			throw new IllegalArgumentException("Cache size must be at least 1 but is " + aSize);
+		}
+		synchronized (this) {
+			_processCacheSize = aSize;
+			trimIdleTaggers();
+		}
+		stopDetached();
+	}
+
+	/**
+	 * Get the number of TreeTagger processes kept running.
+	 *
+	 * @return the number of processes kept, including the current one.
+	 */
+	public
+	int getProcessCacheSize()
+	{
+		return _processCacheSize;
+	}
+
 	/**
 	 * Set the strict mode. In this mode an {@link IllegalArgumentException} is thrown when the
 	 * token sent to TreeTagger and the token returned from it are not equal. Since the TreeTagger
@@ -234,9 +411,9 @@ class TreeTaggerWrapper<O>
 	}
 
 	/**
-	 * Set the arguments that are passed to the TreeTagger executable. A call
-	 * to this method will cause a running TreeTagger process to be shut down
-	 * and restarted with the new arguments.
+	 * Set the arguments that are passed to the TreeTagger executable. If the
+	 * arguments change, a TreeTagger process is started with the new arguments.
+	 * The running process is kept as described in {@link #setProcessCacheSize(int)}.
 	 *
 	 * Using this method can cause TT4J to not work any longer. TTJ4 expects
 	 * that TreeTagger prints a set of line each containing three tokens
@@ -248,8 +425,9 @@ class TreeTaggerWrapper<O>
 	void setArguments(
 			String[] aArgs)
 	{
-		_ttArgs = aArgs;
-		stopTaggerProcess();
+		configure(aArgs != null ? aArgs.clone() : null, _epsilon, _probabilityThreshold,
+				_hyphenHeuristics);
+		stopDetached();
 	}
 
 	public
@@ -266,8 +444,8 @@ class TreeTaggerWrapper<O>
 	void setEpsilon(
 			final Double aEpsilon)
 	{
-		_epsilon = aEpsilon;
-		stopTaggerProcess();
+		configure(_ttArgs, aEpsilon, _probabilityThreshold, _hyphenHeuristics);
+		stopDetached();
 	}
 
 	/**
@@ -299,12 +477,12 @@ class TreeTaggerWrapper<O>
             final Double aThreshold)
     {
         if (aThreshold != null && aThreshold < 0.0) {
-            _probabilityThreshold = null;
+            configure(_ttArgs, _epsilon, null, _hyphenHeuristics);
         }
         else {
-            _probabilityThreshold = aThreshold;
+            configure(_ttArgs, _epsilon, aThreshold, _hyphenHeuristics);
         }
-        stopTaggerProcess();
+        stopDetached();
     }
 
     /**
@@ -316,8 +494,8 @@ class TreeTaggerWrapper<O>
 	void setHyphenHeuristics(
 			boolean hyphenHeuristics)
 	{
-		_hyphenHeuristics = hyphenHeuristics;
-		stopTaggerProcess();
+		configure(_ttArgs, _epsilon, _probabilityThreshold, hyphenHeuristics);
+		stopDetached();
 	}
 
 	/**
@@ -388,8 +566,6 @@ class TreeTaggerWrapper<O>
 			final TokenHandler<O> aHandler)
 	{
 		_handler = aHandler;
-		_probabilityHandler = aHandler instanceof ProbabilityHandler ? 
-		        (ProbabilityHandler<O>) aHandler : null;
 	}
 
 	/**
@@ -459,7 +635,8 @@ class TreeTaggerWrapper<O>
 	}
 
     /**
-	 * Load the model with the given name.
+	 * Load the model with the given name. If a process for this model is still kept running (see
+	 * {@link #setProcessCacheSize(int)}), it is used again.
 	 *
 	 * @param modelName the name of the model.
 	 * @throws IOException if the model can not be found.
@@ -474,18 +651,20 @@ class TreeTaggerWrapper<O>
 			return;
 		}
 
-		stopTaggerProcess();
+		try {
+			if (modelName == null) {
+				clearTaggers();
+				return;
+			}
 
-		// If the previous model was temporary, we have to clean it up
-		if (_model != null) {
-			_model.destroy();
+			activate(modelName, null);
 		}
-
-		if (modelName != null) {
-			_model = _modelResolver.getModel(modelName);
+		finally {
+			stopDetached();
 		}
-		else {
-			_model = null;
+
+		if (_eagerStart) {
+			warmUpAsync();
 		}
 	}
 
@@ -501,16 +680,65 @@ class TreeTaggerWrapper<O>
             final Model model)
     throws IOException
     {
-        stopTaggerProcess();
+        try {
+            if (model == null) {
+                clearTaggers();
+                return;
+            }
 
-        // If the previous model was temporary, we have to clean it up
-        if (_model != null) {
-            _model.destroy();
+            activate(model.getName(), model);
+        }
+        finally {
+            stopDetached();
         }
 
-        _model = model;
+        if (_eagerStart) {
+            warmUpAsync();
+        }
     }
 
+	/**
+	 * Get the tagset of the current model. The tags are listed in the order in which they appear
+	 * in the model file. The position of a tag in this list is the tag index passed to an
+	 * {@link IndexedTokenHandler}. The tagset is read from the model file once when the model is
+	 * first used. If the model file cannot be parsed, e.g. because its format is not supported
+	 * by {@link TreeTaggerModelReader}, the tagset is empty.
+	 *
+	 * @return the tagset.
+	 * @throws IOException if the model cannot be installed.
+	 */
+	public synchronized
+	List<String> getTagset()
+	throws IOException
+	{
+		if (_model == null) {
+			return Collections.emptyList();
+		}
+
+		if (_tagset == null) {
+			_model.install();
+
+			List<String> tagset;
+			InputStream is = null;
+			try {
+				is = new FileInputStream(_model.getFile());
+				tagset = TreeTaggerModelUtil.getTagset(is, _model.getEncoding());
+			}
+			catch (final Exception e) {
+				if (TRACE) {
+					System.err.println("[" + TreeTaggerWrapper.this
+							+ "|TRACE] Unable to read tagset from model: " + e.getMessage());
+				}
+				tagset = Collections.emptyList();
+			}
+			finally {
+				Util.close(is);
+			}
+			_tagset = Collections.unmodifiableList(tagset);
+		}
+		return _tagset;
+	}
+
 	/**
 	 * Get the currently set model.
 	 *
@@ -540,15 +768,32 @@ class TreeTaggerWrapper<O>
     	if (_exeResolver != null) {
     		_exeResolver.destroy();
     	}
+    	if (_exeResolver != _defaultExeResolver) {
+    		// It may have been used before a custom resolver was set
+    		_defaultExeResolver.destroy();
+    	}
+    	_resources.setExecutable(null);
 	}
 
-	@Override
-	protected
-	void finalize()
-	throws Throwable
+	/**
+	 * Stop the processes and destroy the models and the executable resolver created by the
+	 * wrapper. A resolver set using {@link #setExecutableProvider(ExecutableResolver)} is not
+	 * destroyed. This is done once the wrapper has been garbage collected if the wrapper has not
+	 * been destroyed. The wrapper must not be used anymore afterwards.
+	 */
+	void reap()
+	{
+		_cleanable.clean();
+	}
+
+	/**
+	 * Stop the TreeTagger processes and clean up the models and executable. Same as
+	 * {@link #destroy()}.
+	 */
+	public
+	void close()
 	{
 		destroy();
-		super.finalize();
 	}
 
 	/**
@@ -578,103 +823,356 @@ class TreeTaggerWrapper<O>
 			final Collection<O> aTokenList)
 	throws IOException, TreeTaggerException
 	{
-		// In normal more sort out all tokens that we cannot handle. In
-		// particular line breaks and tabs cannot be handled by TreeTagger.
-		Collection<O> aTokens;
-		if (!_performanceMode) {
-			aTokens = removeProblematicTokens(aTokenList);
+		final TaggingJob job = submit(
+				Collections.singletonList(aTokenList), Collections.singletonList(_handler));
+
+		// Wait for the processing to end. The reader, writer and stderr threads signal the
+		// completion or failure of the job directly. If the reader or writer fail, we kill the
+		// TreeTagger and bail out.
+		job.await();
+		checkJob(job);
+
+//		info("Parsed " + count + " pos segments");
+	}
+
+	/**
+	 * Process the given list of token objects asynchronously. The tokens are queued for the
+	 * TreeTagger process and this method returns immediately. Multiple calls are pipelined into
+	 * the same process, i.e. the tokens of the next call are written while the results of the
+	 * previous call are still being read. The {@link TokenHandler} set on this wrapper is not
+	 * used, instead the results are collected into the list returned by the future.
+	 * <p>
+	 * This method may be called concurrently with itself and with {@link #process(Collection)},
+	 * but not with any method changing the configuration of the wrapper. Changing the
+	 * configuration parks the process as an idle process (see {@link #setProcessCacheSize(int)}).
+	 * It keeps running and the pending requests are completed normally. If the parked process is
+	 * evicted from the cache before it has caught up, it is stopped and the futures of its
+	 * pending requests complete exceptionally with a {@link TreeTaggerException}. With the
+	 * default cache size of one, the parked process is evicted right away. The same happens when
+	 * the wrapper is destroyed or the model is set to {@code null}.
+	 * <p>
+	 * The future is completed by the thread reading the TreeTagger output. Dependent stages which
+	 * may take long or which may block must therefore use one of the asynchronous variants,
+	 * e.g. {@link CompletableFuture#thenApplyAsync(java.util.function.Function)}.
+	 * <p>
+	 * The tokens are read from the given collection while they are sent to TreeTagger. The
+	 * collection must not be modified before the future has completed.
+	 *
+	 * @param aTokenList the token objects.
+	 * @return a future which completes with the analyzed tokens or which completes exceptionally
+	 *     with a {@link TreeTaggerException} if there is a problem communicating with TreeTagger.
+	 */
+	public
+	CompletableFuture<List<TaggedToken<O>>> processAsync(
+			final Collection<O> aTokenList)
+	{
+		final CompletableFuture<List<TaggedToken<O>>> result =
+				new CompletableFuture<List<TaggedToken<O>>>();
+		final TokenCollector collector = new TokenCollector(_probabilityThreshold != null);
+
+		try {
+			submit(Collections.singletonList(aTokenList), Collections.singletonList(collector))
+					.getCompletion().whenComplete(
+					new BiConsumer<Void, Throwable>()
+			{
+				public void accept(Void aVoid, Throwable aException)
+				{
+					if (aException != null) {
+						result.completeExceptionally(asTreeTaggerException(aException));
+					}
+					else {
+						result.complete(collector.getTokens());
+					}
+				}
+			});
 		}
-		else {
-			aTokens = aTokenList;
-		}
-
-		// Remember the number of tokens we originally got.
-		_numTokens = aTokens.size();
-		_tokensRead = 0;
-		_tokensWritten = 0;
-		_lastInToken = new RingBuffer(10);
-		_lastOutToken = new RingBuffer(10);
-		_lastOutRecord = null;
-		_lastTokenWritten = null;
-
-		final Process taggerProc = getTaggerProcess();
-
-		// One thread reads the output.
-		final Reader reader = new Reader(
-				taggerProc.getInputStream(), aTokens.iterator());
-		final Thread readerThread = new Thread(reader);
-		readerThread.setName("TT4J StdOut Reader");
-		readerThread.start();
-
-		// One thread consumes stderr so we do not get a deadlock.
-		final StreamGobbler gob = new StreamGobbler(taggerProc.getErrorStream());
-		Thread errorGobblerThread = new Thread(gob);
-		errorGobblerThread.setName("TT4J StdErr Reader");
-		errorGobblerThread.start();
-
-		// Now we can start writing.
-		final Writer writer = new Writer(aTokens.iterator());
-		Thread writerThread = new Thread(writer);
-		writerThread.setName("TT4J StdIn Writer");
-		writerThread.start();
-
-		// Wait for the processing to end. Every once in a while we check if an
-		// exception has been thrown. When the Reader thread is complete, we can
-		// stop.
+		catch (final Exception e) {
+			result.completeExceptionally(e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Process a batch of documents. All documents are sent to the TreeTagger process in a single
+	 * exchange, each framed by its own start and end markers, and the flush sequence is sent only
+	 * once at the end of the batch. This amortizes the cost of the flush sequence and of the
+	 * round trip to the process over many small documents, e.g. sentences or tweets.
+	 * <p>
+	 * The results for each document are passed to the handler at the same position in the list
+	 * of handlers. The {@link TokenHandler} set on this wrapper is not used. Note that
+	 * TreeTagger sees the documents as one continuous stream, so the context at the start of a
+	 * document may be influenced by the end of the previous document. For documents ending with
+	 * a sentence boundary, this is the same as when processing them separately.
+	 *
+	 * @param aDocuments the token objects of each document.
+	 * @param aHandlers a handler for each document. May contain {@code null} entries.
+	 * @throws IOException if there is a problem providing the model or executable.
+	 * @throws TreeTaggerException if there is a problem communication with TreeTagger.
+	 */
+	public
+	void processBatch(
+			final List<? extends Collection<O>> aDocuments,
+			final List<? extends TokenHandler<O>> aHandlers)
+	throws IOException, TreeTaggerException
+	{
+		if (aDocuments.size() != aHandlers.size()) {
+			throw new IllegalArgumentException("Got " + aDocuments.size() + " documents but "
+					+ aHandlers.size() + " handlers");
+		}
+
+		final TaggingJob job = submit(aDocuments, aHandlers);
+
+		// Wait for all documents to be processed.
+		job.await();
+		checkJob(job);
+	}
+
+	/**
+	 * Process a stream of token objects of unknown length, e.g. a corpus which does not fit into
+	 * memory. The tokens are passed to the {@link TokenHandler} set on this wrapper. The source
+	 * is consumed only once and only as fast as TreeTagger can process the tokens: at most
+	 * {@link #setStreamWindowSize(int) window size} tokens are held in memory at any time.
+	 * <p>
+	 * The source is consumed by the thread writing to the TreeTagger process. If it throws an
+	 * exception, processing fails with a {@link TreeTaggerException}. Whenever the window is
+	 * full, the flush sequence is sent through TreeTagger before more tokens are sent, so a small
+	 * window reduces throughput and may affect tagging at the window boundaries.
+	 *
+	 * @param aTokens the token objects.
+	 * @throws IOException if there is a problem providing the model or executable.
+	 * @throws TreeTaggerException if there is a problem communication with TreeTagger.
+	 */
+	public
+	void process(
+			final Iterator<? extends O> aTokens)
+	throws IOException, TreeTaggerException
+	{
+		final TaggingJob job;
+		synchronized (this) {
+			final TreeTaggerProcess taggerProc = getTaggerProcess();
+			job = new StreamJob(taggerProc, aTokens, _handler, _streamWindowSize,
+					_performanceMode ? null : getSanitizer());
+			_lastJob = job;
+			taggerProc.submit(job);
+		}
+
+		job.await();
+		checkJob(job);
+	}
+
+	/**
+	 * Process a stream of token objects of unknown length.
+	 *
+	 * @param aTokens the token objects.
+	 * @throws IOException if there is a problem providing the model or executable.
+	 * @throws TreeTaggerException if there is a problem communication with TreeTagger.
+	 * @see #process(Iterator)
+	 */
+	public
+	void process(
+			final Stream<? extends O> aTokens)
+	throws IOException, TreeTaggerException
+	{
+		process(aTokens.iterator());
+	}
+
+	/**
+	 * Start the TreeTagger process and wait until it has loaded the model. An empty document is
+	 * sent through the process, which TreeTagger can only answer once the parameter file has been
+	 * read. Calling this method e.g. during the deployment of a service avoids that the first
+	 * request has to wait for the process to start. If the process is already running, this
+	 * method only costs a round trip to the process.
+	 *
+	 * @throws IOException if there is a problem providing the model or executable.
+	 * @throws TreeTaggerException if there is a problem communication with TreeTagger.
+	 */
+	public
+	void warmUp()
+	throws IOException, TreeTaggerException
+	{
+		final TaggingJob job = submitWarmUp();
+		job.await();
+		checkJob(job);
+	}
+
+	/**
+	 * Start the TreeTagger process in the background. The returned future completes once the
+	 * process has loaded the model and is ready to tag.
+	 *
+	 * @return a future which completes when TreeTagger is ready or which completes exceptionally
+	 *     with a {@link TreeTaggerException} if the process could not be started.
+	 * @see #warmUp()
+	 */
+	public
+	CompletableFuture<Void> warmUpAsync()
+	{
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+
 		try {
-			// Wait for the Reader thread to end.
-			synchronized (reader) {
-				while (readerThread.getState() != State.TERMINATED) {
-					try {
-						// If the reader or writer fail, we kill the TreeTagger and bail
-						// out. This may be a bit harsh, but easier than coding the
-						// Reader and Writer so that we can abort them. If the process
-						// is dead, the streams die and then the threads will also die
-						// with an IOException.
-						checkThreads(reader, writer, gob);
-
-						reader.wait(20);
+			submitWarmUp().getCompletion().whenComplete(new BiConsumer<Void, Throwable>()
+			{
+				public void accept(Void aVoid, Throwable aException)
+				{
+					if (aException != null) {
+						result.completeExceptionally(asTreeTaggerException(aException));
 					}
-					catch (final InterruptedException e) {
-						// Ignore
+					else {
+						result.complete(null);
 					}
 				}
-				// At the end make sure that no thread exited with an exception
-				checkThreads(reader, writer, gob);
+			});
+		}
+		catch (final Exception e) {
+			result.completeExceptionally(e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the failure of a job as a {@link TreeTaggerException}. Jobs already fail with a
+	 * {@link TreeTaggerException} in most cases, which is passed on as it is.
+	 */
+	private static
+	TreeTaggerException asTreeTaggerException(
+			final Throwable aException)
+	{
+		if (aException instanceof TreeTaggerException) {
+			return (TreeTaggerException) aException;
+		}
+		return new TreeTaggerException(aException);
+	}
+
+	private
+	TaggingJob submitWarmUp()
+	throws IOException
+	{
+		return submit(Collections.singletonList(Collections.<O>emptyList()),
+				Collections.<TokenHandler<O>>singletonList(null));
+	}
+
+	private synchronized
+	TaggingJob submit(
+			final List<? extends Collection<O>> aDocuments,
+			final List<? extends TokenHandler<O>> aHandlers)
+	throws IOException
+	{
+		// In normal more sort out all tokens that we cannot handle. In
+		// particular line breaks and tabs cannot be handled by TreeTagger. The job checks
+		// the tokens while they are sent, no copy is made. In repair mode, the job replaces
+		// these tokens instead. Only a subclass overriding removeProblematicTokens() gets to
+		// filter the documents itself, and only if no replacement is set.
+		final boolean customFilter = _customTokenFilter && !_performanceMode
+				&& _replacementToken == null;
+		List<? extends Collection<O>> documents = aDocuments;
+		if (customFilter) {
+			List<Collection<O>> filtered = new ArrayList<Collection<O>>(aDocuments.size());
+			for (Collection<O> document : aDocuments) {
+				filtered.add(removeProblematicTokens(document));
 			}
+			documents = filtered;
 		}
-		finally {
-			gob.done();
+
+		final TreeTaggerProcess taggerProc = getTaggerProcess();
+
+		// The documents returned by a custom filter are sent as they are
+		final TaggingJob job = new BatchJob(taggerProc, documents, aHandlers,
+				countTokens(aDocuments),
+				_performanceMode || customFilter ? null : getSanitizer());
+		_lastJob = job;
+		if (documents.isEmpty()) {
+			// Nothing to send
+			job.completed();
 		}
+		else {
+			// The reader, writer and stderr threads of the process pick up the job.
+			taggerProc.submit(job);
+		}
+		return job;
+	}
 
-//		info("Parsed " + count + " pos segments");
+	private static
+	int countTokens(
+			final List<? extends Collection<?>> aDocuments)
+	{
+		int n = 0;
+		for (Collection<?> document : aDocuments) {
+			n += document.size();
+		}
+		return n;
 	}
 
 	private
-	void checkThreads(
-			final Reader reader,
-			final Writer writer,
-			final StreamGobbler gobbler)
+	void checkJob(
+			final TaggingJob aJob)
 	throws TreeTaggerException
 	{
-		if (gobbler.getException() != null) {
-			destroy();
-			throw new TreeTaggerException(gobbler.getException());
+		if (aJob.getException() != null) {
+			discardProcess(aJob.process);
+			stopDetached();
+			throw new TreeTaggerException(aJob.getException());
+		}
+	}
+
+	/**
+	 * Forget a process which has failed. Only this process is lost, the model, the idle taggers
+	 * and the executable are kept. The process is stopped by {@link #stopDetached()}.
+	 */
+	private synchronized
+	void discardProcess(
+			final TreeTaggerProcess aProcess)
+	{
+		// Normally the process has already stopped itself
+		_detachedProcesses.add(aProcess);
+		if (_proc == aProcess) {
+			_proc = null;
 		}
+	}
 
-		if (writer.getException() != null) {
-			destroy();
-			throw new TreeTaggerException(writer.getException());
+	/**
+	 * Stop the processes and destroy the models which have been released while holding the lock
+	 * on the wrapper. Stopping a process can take up to twice the shutdown timeout, so this must
+	 * be called after the lock has been released. Otherwise every other thread using the wrapper
+	 * would be blocked meanwhile.
+	 */
+	private
+	void stopDetached()
+	{
+		List<TreeTaggerProcess> processes;
+		List<Model> models;
+		synchronized (this) {
+			if (_detachedProcesses.isEmpty() && _detachedModels.isEmpty()) {
+				return;
+			}
+			processes = new ArrayList<TreeTaggerProcess>(_detachedProcesses);
+			models = new ArrayList<Model>(_detachedModels);
+			_detachedProcesses.clear();
+			_detachedModels.clear();
 		}
 
-		if (reader.getException() != null) {
-			destroy();
-			throw new TreeTaggerException(reader.getException());
+		// Stop the processes before their models are destroyed
+		for (TreeTaggerProcess process : processes) {
+			process.stop();
+		}
+		for (Model model : models) {
+			model.destroy();
+			_resources.remove(model);
 		}
 	}
 
 	/**
 	 * Filter out tokens that cause problems when communicating with the TreeTagger process.
+	 * The returned collection is a view on the original collection which skips the problematic
+	 * tokens while it is iterated. The original collection must not be modified while the view is
+	 * used.
+	 * <p>
+	 * The wrapper does not call this method itself, it checks the tokens while sending them.
+	 * Subclasses may override this method to filter the tokens differently. The overriding
+	 * method is then called for each collection of tokens passed to the wrapper and the tokens
+	 * it returns are sent to TreeTagger unchecked. This does not apply in performance mode or if a
+	 * {@link #setReplacementToken(String) replacement token} is set, as then no tokens are
+	 * removed.
 	 *
 	 * @param tokenList the original list of tokens.
 	 * @return the filtered list of tokens.
@@ -685,70 +1183,67 @@ class TreeTaggerWrapper<O>
 			Collection<O> tokenList)
 	throws UnsupportedEncodingException
 	{
-		Collection<O> filtered = new ArrayList<O>(tokenList.size());
-		Iterator<O> i = tokenList.iterator();
-		boolean skipped = true;
-		String text = null;
-		skipToken: while (i.hasNext()) {
-			if (TRACE && skipped && text != null) {
-				System.err.println("["+TreeTaggerWrapper.this+
-						"|TRACE] Skipping illegal token ["+text+"]");
-			}
+		return new SanitizedCollection(tokenList, getSanitizer());
+	}
 
-			skipped = true;
-			O token = i.next();
-			text = getText(token);
-			if (text == null) {
-				continue;
+	private static
+	boolean overridesTokenFilter(
+			final Class<?> aClass)
+	{
+		for (Class<?> c = aClass; c != TreeTaggerWrapper.class; c = c.getSuperclass()) {
+			try {
+				c.getDeclaredMethod("removeProblematicTokens", Collection.class);
+				return true;
 			}
-			// Check if the encoded string may be longer than the maximal allowed size. We expect
-			// that the String might at worst grow to 4 times its size because a character in UTF-8
-			// can become at most 4 bytes.
-			if (text.length() > (_maximumTokenLength >> 2)) {
-				if (text.getBytes(_model.getEncoding()).length >= _maximumTokenLength) {
-					continue;
-				}
+			catch (final NoSuchMethodException e) {
+				// Look further up
 			}
+		}
+		return false;
+	}
 
-			boolean isUnicode = "UTF-8".equals(_model.getEncoding().toUpperCase(Locale.US));
-			boolean onlyWhitespace = true;
-			// Check if the token contains characters that break the communication with the
-			// TreeTagger process
-			for (int n = 0; n < text.length(); n++) {
-				// If the model does not use a Unicode encoding, high unicode characters cause
-				// problems.
-				int cp = text.codePointAt(n);
-				if (!isUnicode) {
-					// Cannot deal with Unicode > 16 bit if not in Unicode mode
-					if (cp >= 0x10000) continue skipToken; 
-				}
-				char c = text.charAt(n);
-				if (c >= 0x0000 && c <= 0x001B) continue skipToken; // CONTROL CHARACTERS
-				if (onlyWhitespace) {
-					onlyWhitespace &= Character.isWhitespace(c);
-				}
+	/**
+	 * Get the sanitizer for the current model. It is created once per model and maximum token
+	 * length.
+	 *
+	 * @return the sanitizer.
+	 * @throws UnsupportedEncodingException if the model specifies an unsupported encoding.
+	 */
+	private
+	TokenSanitizer getSanitizer()
+	throws UnsupportedEncodingException
+	{
+		TokenSanitizer sanitizer = _sanitizer;
+		if (sanitizer == null) {
+			try {
+				sanitizer = new TokenSanitizer(_model.getEncoding(), _maximumTokenLength);
 			}
-
-			if (onlyWhitespace) {
-				continue skipToken;
+			catch (final IllegalArgumentException e) {
+				UnsupportedEncodingException uee = new UnsupportedEncodingException(
+						_model.getEncoding());
+				uee.initCause(e);
+				throw uee;
 			}
-
-			filtered.add(token);
-			skipped = false;
+			_sanitizer = sanitizer;
 		}
-		return filtered;
+		return sanitizer;
 	}
 
-	/**
+		/**
      * Start tagger process.
      *
      * @return
      * @throws IOException
      */
     private
-    Process getTaggerProcess()
+    TreeTaggerProcess getTaggerProcess()
     throws IOException
     {
+    	// If communicating with the process failed, it has stopped itself and we need a new one.
+    	if (_proc != null && _proc.isStopped()) {
+    		_proc = null;
+    	}
+
     	if (_proc == null) {
         	_model.install();
 
@@ -775,18 +1270,22 @@ class TreeTaggerWrapper<O>
 			}
 
 			cmd.add(_model.getFile().getAbsolutePath());
-			_procCmd = join(cmd, " ");
-			
+
 			if (TRACE) {
 				System.err.println("[" + TreeTaggerWrapper.this
-						+ "|TRACE] Invoking TreeTagger [" + _procCmd + "]");
+						+ "|TRACE] Invoking TreeTagger [" + Util.join(cmd, " ") + "]");
 			}
 
-
-			final ProcessBuilder pb = new ProcessBuilder();
-			pb.command(cmd);
-			_proc = pb.start();
+			_proc = new TreeTaggerProcess(cmd, _model.getEncoding(), _model.getFlushSequence(),
+					asList(_ttArgs).contains(ARG_SGML), getTagset(), _metrics);
+			_proc.setShutdownTimeout(_shutdownTimeout);
+			_resources.add(_proc);
+			if (_exeResolver == _defaultExeResolver) {
+				// A resolver set by the caller may be shared, e.g. by the wrappers of a pool
+				_resources.setExecutable(_exeResolver);
+			}
 			_restartCount++;
+			_metrics.processStarted();
     	} else {
 //    		info("Re-using treetagger: " + _procCmd);
     	}
@@ -794,20 +1293,265 @@ class TreeTaggerWrapper<O>
     }
 
     /**
-     * Kill tagger process.
+     * Kill tagger process. The process is stopped by {@link #stopDetached()}.
      */
-    private
+    private synchronized
     void stopTaggerProcess()
     {
     	if (_proc != null) {
-	    	_proc.destroy();
+	    	_detachedProcesses.add(_proc);
 	    	_proc = null;
-	    	_procCmd = null;
 	    	// getContext().getLogger().log(Level.INFO, "Stopped TreeTagger sub-process");
     	}
     }
 
-    private
+    /**
+     * Get the settings of the process for the current model. These are the model name and the
+     * configuration the process is started with.
+     *
+     * @return the settings or {@code null} if no model is set.
+     */
+    public synchronized
+    TreeTaggerSettings getSettings()
+    {
+    	if (_model == null) {
+    		return null;
+    	}
+    	return getSettings(_model.getName());
+    }
+
+    private
+    TreeTaggerSettings getSettings(
+    		final String aModelName)
+    {
+    	return new TreeTaggerSettings(aModelName, _ttArgs, _epsilon, _probabilityThreshold,
+    			_hyphenHeuristics);
+    }
+
+    /**
+     * Change the configuration of the process. If the configuration is the same as before,
+     * nothing happens. Otherwise the current process is kept as an idle tagger and a process with
+     * the new configuration is used, if there is one.
+     */
+    private synchronized
+    void configure(
+    		final String[] aArgs,
+    		final Double aEpsilon,
+    		final Double aProbabilityThreshold,
+    		final boolean aHyphenHeuristics)
+    {
+    	TreeTaggerSettings previous = getSettings();
+
+    	_ttArgs = aArgs;
+    	_epsilon = aEpsilon;
+    	_probabilityThreshold = aProbabilityThreshold;
+    	_hyphenHeuristics = aHyphenHeuristics;
+
+    	if (previous == null || previous.equals(getSettings())) {
+    		return;
+    	}
+
+    	Model model = _model;
+    	List<String> tagset = _tagset;
+    	TokenSanitizer sanitizer = _sanitizer;
+    	IdleTagger tagger = _idleTaggers.remove(getSettings());
+    	suspendTagger(previous);
+    	if (tagger != null) {
+    		resumeTagger(tagger);
+    		if (model != null) {
+    			// The previous configuration may have had no process to keep
+    			releaseModel(model);
+    		}
+    	}
+    	else {
+    		_model = model;
+    		_tagset = tagset;
+    		_sanitizer = sanitizer;
+    	}
+    	trimIdleTaggers();
+    }
+
+    /**
+     * Make the given model the current one. The current model and its process are kept as an
+     * idle tagger.
+     *
+     * @param aModelName the model name.
+     * @param aModel the model or {@code null} to use an idle tagger for the model if there is one
+     *     or to resolve the model otherwise.
+     * @throws IOException if the model can not be found.
+     */
+    private synchronized
+    void activate(
+    		final String aModelName,
+    		final Model aModel)
+    throws IOException
+    {
+    	// Resolve the model before touching the current one. If this fails, everything stays as
+    	// it was.
+    	TreeTaggerSettings settings = getSettings(aModelName);
+    	IdleTagger tagger = aModel == null ? _idleTaggers.get(settings) : null;
+    	IdleTagger shared = null;
+    	Model model = aModel;
+    	if (aModel == null && tagger == null) {
+    		// Share the model with the idle taggers for other configurations
+    		for (IdleTagger t : _idleTaggers.values()) {
+    			if (t.model.getName().equals(aModelName)) {
+    				shared = t;
+    			}
+    		}
+    		model = shared != null ? shared.model : _modelResolver.getModel(aModelName);
+    	}
+
+    	Model previous = _model;
+    	if (previous != null) {
+    		suspendTagger(getSettings());
+    	}
+
+    	if (tagger != null) {
+    		_idleTaggers.remove(settings);
+    		resumeTagger(tagger);
+    	}
+    	else if (shared != null) {
+    		_model = shared.model;
+    		_tagset = shared.tagset;
+    		_sanitizer = shared.sanitizer;
+    	}
+    	else {
+    		_model = model;
+    		_resources.add(_model);
+    		// The model may have been released but not yet been destroyed
+    		_detachedModels.remove(_model);
+    		if (aModel != null) {
+    			// The model is reloaded, do not re-use any process for a model of the same name
+    			Iterator<IdleTagger> i = _idleTaggers.values().iterator();
+    			while (i.hasNext()) {
+    				IdleTagger t = i.next();
+    				if (t.model.getName().equals(aModelName)) {
+    					i.remove();
+    					release(t);
+    				}
+    			}
+    		}
+    	}
+
+    	if (previous != null) {
+    		// The previous model had no process to keep
+    		releaseModel(previous);
+    	}
+    	trimIdleTaggers();
+    }
+
+    /**
+     * Keep the current model and its process as an idle tagger. Afterwards no model is set. If
+     * no process has been started for the current model, there is nothing to keep. The caller is
+     * then responsible for releasing the model.
+     *
+     * @param aSettings the settings the process has been started with.
+     */
+    private
+    void suspendTagger(
+    		final TreeTaggerSettings aSettings)
+    {
+    	IdleTagger tagger = new IdleTagger(_model, _tagset, _sanitizer, _proc);
+    	_proc = null;
+    	_model = null;
+    	_tagset = null;
+    	_sanitizer = null;
+
+    	if (tagger.process == null) {
+    		return;
+    	}
+
+    	// Re-inserting moves the entry to the end of the LRU order
+    	IdleTagger previous = _idleTaggers.remove(aSettings);
+    	_idleTaggers.put(aSettings, tagger);
+    	if (previous != null) {
+    		release(previous);
+    	}
+    }
+
+    private
+    void resumeTagger(
+    		final IdleTagger aTagger)
+    {
+    	_model = aTagger.model;
+    	_tagset = aTagger.tagset;
+    	_sanitizer = aTagger.sanitizer;
+    	_proc = aTagger.process;
+    }
+
+    /**
+     * Shut down the least recently used idle taggers until the cache size is respected. The
+     * process for the current model counts towards the cache size.
+     */
+    private synchronized
+    void trimIdleTaggers()
+    {
+    	Iterator<IdleTagger> i = _idleTaggers.values().iterator();
+    	while (_idleTaggers.size() > _processCacheSize - 1 && i.hasNext()) {
+    		IdleTagger tagger = i.next();
+    		i.remove();
+    		release(tagger);
+    	}
+    }
+
+    /**
+     * Stop the process of an idle tagger which has been removed from the cache. The model is
+     * destroyed unless it is still used by the current model or by another idle tagger. Both
+     * happens in {@link #stopDetached()}.
+     */
+    private
+    void release(
+    		final IdleTagger aTagger)
+    {
+    	if (aTagger.process != null) {
+    		_detachedProcesses.add(aTagger.process);
+    	}
+    	releaseModel(aTagger.model);
+    }
+
+    /**
+     * Destroy a model unless it is still used by the current model or by an idle tagger.
+     */
+    private
+    void releaseModel(
+    		final Model aModel)
+    {
+    	if (aModel == _model) {
+    		return;
+    	}
+    	for (IdleTagger tagger : _idleTaggers.values()) {
+    		if (tagger.model == aModel) {
+    			return;
+    		}
+    	}
+    	// The model stays registered for the reaper until it has been destroyed
+    	_detachedModels.add(aModel);
+    }
+
+    /**
+     * Stop all processes and destroy all models.
+     */
+    private synchronized
+    void clearTaggers()
+    {
+    	Iterator<IdleTagger> i = _idleTaggers.values().iterator();
+    	while (i.hasNext()) {
+    		IdleTagger tagger = i.next();
+    		i.remove();
+    		release(tagger);
+    	}
+
+    	stopTaggerProcess();
+    	if (_model != null) {
+    		_detachedModels.add(_model);
+    	}
+    	_model = null;
+    	_tagset = null;
+    	_sanitizer = null;
+    }
+
+    private
 	String getText(
 			final O o)
 	{
@@ -822,56 +1566,29 @@ class TreeTaggerWrapper<O>
     public
     String getStatus()
     {
-		StringBuilder sb = new StringBuilder();
-		try {
-			int status = _proc.exitValue();
-			sb.append("TreeTagger process: exited with status ").append(status).append('\n');
-		}
-		catch (IllegalThreadStateException e) {
-			sb.append("TreeTagger process: still running.\n");
-		}
-
-		sb.append("Last " + _lastOutToken.size() + " tokens sent: ");
-		if (_lastInToken != null) {
-			sb.append("[").append(_lastOutToken).append("]");
-		}
-		else {
-			sb.append("none");
-		}
-		sb.append('\n');
-		
-		sb.append("Last token sent (#").append(_tokensWritten).append("): ");
-		if (_lastTokenWritten != null) {
-			sb.append("[").append(getText(_lastTokenWritten)).append("]");
-		}
-		else {
-			sb.append("none");
-		}
-		sb.append('\n');
+    	TaggingJob job = _lastJob;
+    	if (job != null) {
+    		return job.getStatus();
+    	}
+    	else {
+    		return getProcessStatus(_proc) + "No tokens processed yet.\n";
+    	}
+    }
 
-		sb.append("Last " + _lastInToken.size() + " tokens read: ");
-		if (_lastInToken != null) {
-			sb.append("[").append(_lastInToken).append("]");
-		}
-		else {
-			sb.append("none");
+    private static
+    String getProcessStatus(
+    		final TreeTaggerProcess aProcess)
+    {
+		Integer status = aProcess != null ? aProcess.exitValue() : null;
+		if (aProcess == null) {
+			return "TreeTagger process: not running.\n";
 		}
-		sb.append('\n');
-
-		sb.append("Last record read (#").append(_tokensRead).append("): ");
-		if (_lastOutRecord != null) {
-			sb.append("[").append(_lastOutRecord+"]");
+		else if (status != null) {
+			return "TreeTagger process: exited with status " + status + "\n";
 		}
 		else {
-			sb.append("none");
+			return "TreeTagger process: still running.\n";
 		}
-		sb.append('\n');
-
-		sb.append("Tokens originally recieved: ").append(_numTokens).append('\n');
-		sb.append("Tokens written            : ").append(_tokensWritten).append('\n');
-		sb.append("Tokens read               : ").append(_tokensRead).append('\n');
-
-		return sb.toString();
     }
 
     /**
@@ -885,282 +1602,911 @@ class TreeTaggerWrapper<O>
 		return _restartCount;
 	}
 
-    private
-    class StreamGobbler
-    implements Runnable
-    {
-    	private final InputStream in;
-    	private boolean done = false;
-		private Throwable _exception;
+	/**
+	 * Get the metrics of this wrapper, e.g. to expose them via JMX.
+	 *
+	 * @return the metrics.
+	 */
+	public
+	TreeTaggerMetrics getMetrics()
+	{
+		return _metrics;
+	}
 
-    	public
-    	StreamGobbler(
-    			final InputStream aIn)
-    	{
-			in = aIn;
+	/**
+	 * The processes, models and executable which have to be cleaned up if the wrapper is garbage
+	 * collected without having been destroyed. This must not refer to the wrapper.
+	 */
+	private static
+	class Resources
+	implements Runnable
+	{
+		private final Set<TreeTaggerProcess> processes = new HashSet<TreeTaggerProcess>();
+		private final Set<Model> models = Collections.newSetFromMap(
+				new IdentityHashMap<Model, Boolean>());
+		private ExecutableResolver executable;
+
+		synchronized
+		void add(
+				final TreeTaggerProcess aProcess)
+		{
+			Iterator<TreeTaggerProcess> i = processes.iterator();
+			while (i.hasNext()) {
+				if (i.next().isStopped()) {
+					i.remove();
+				}
+			}
+			processes.add(aProcess);
 		}
 
-    	public
-    	void done()
-    	{
-    		done = true;
-    	}
+		synchronized
+		void add(
+				final Model aModel)
+		{
+			models.add(aModel);
+		}
 
-    	public
-    	void run()
-    	{
-    		StringBuilder sb = new StringBuilder();
-    		byte[] buffer = new byte[1024];
-    		try {
-	    		while(!done) {
-    				while (in.available() > 0) {
-    					in.read(buffer, 0, Math.min(buffer.length, in.available()));
-    					sb.append(new String(buffer));
-    				}
-	    			Thread.sleep(100);
-	    		}
-    		}
-    		catch (final Throwable e) {
-    			System.out.println("Last seen from TreeTagger ["+sb+"]");
-    			_exception = e;
-    		}
-    	}
+		synchronized
+		void remove(
+				final Model aModel)
+		{
+			models.remove(aModel);
+		}
 
-    	public
-    	Throwable getException() {
-			return _exception;
+		synchronized
+		void setExecutable(
+				final ExecutableResolver aExecutable)
+		{
+			executable = aExecutable;
 		}
-}
 
-	private
-    class Reader
-    implements Runnable
-    {
-		private final Iterator<O> tokenIterator;
-		private final BufferedReader in;
-		private final InputStream ins;
-		private Throwable _exception;
-
-    	public
-    	Reader(
-    			final InputStream aIn,
-    			final Iterator<O> aTokenIterator)
-    	throws UnsupportedEncodingException
+		public synchronized
+		void run()
 		{
-    		ins = aIn;
-    		in = new BufferedReader(new InputStreamReader(
-    			    ins, _model.getEncoding()));
-    		tokenIterator = aTokenIterator;
-		}
-
-    	public
-    	void run()
-    	{
-    	    boolean sgmlMode = asList(_ttArgs).contains(ARG_SGML);
-    	    
-    		try {
-	    		String outRecord;
-	    		boolean inText = false;
-	    		while (true) {
-	    			outRecord = in.readLine();
-
-	    			if (outRecord == null) {
-						throw new IOException(
-								"The TreeTagger process has died:\n" + getStatus() +
-								"\nMake sure the following comand (in parentheses) works when " +
-								"running it from the command line: [echo \"test\" | " +
-								_procCmd + "]");
-	    			}
-
-	    			outRecord = outRecord.trim();
-
-	    			if (sgmlMode ? STARTOFTEXT.equals(outRecord) : outRecord.startsWith(STARTOFTEXT+'\t')) {
-	    				inText = true;
+			for (TreeTaggerProcess process : processes) {
+				process.stop();
+			}
+			processes.clear();
+
+			for (Model model : models) {
+				model.destroy();
+			}
+			models.clear();
+
+			if (executable != null) {
+				executable.destroy();
+				executable = null;
+			}
+		}
+	}
+
+	/**
+	 * A model and a process which has been started for it, but which are currently not used.
+	 */
+	private static
+	class IdleTagger
+	{
+		final Model model;
+		final List<String> tagset;
+		final TokenSanitizer sanitizer;
+		final TreeTaggerProcess process;
+
+		IdleTagger(
+				final Model aModel,
+				final List<String> aTagset,
+				final TokenSanitizer aSanitizer,
+				final TreeTaggerProcess aProcess)
+		{
+			model = aModel;
+			tagset = aTagset;
+			sanitizer = aSanitizer;
+			process = aProcess;
+		}
+	}
+
+	/**
+	 * Base class for jobs tagging tokens of this wrapper. It parses the records produced by
+	 * TreeTagger, pairs them with the tokens that were sent and passes the results to the
+	 * handlers. Subclasses determine where the tokens come from.
+	 */
+	private abstract
+	class TaggingJob
+	extends TreeTaggerProcess.Job
+	{
+		private final TreeTaggerProcess process;
+		private final boolean probabilities;
+		private final boolean strictMode;
+		private final int numTokens;
+		private final int numDocuments;
+		private final TokenSanitizer sanitizer;
+		protected final String replacement;
+		private final long start;
+		private final AtomicBoolean recorded = new AtomicBoolean();
+
+		protected TokenHandler<O> handler;
+		protected IndexedTokenHandler<O> indexedHandler;
+		protected ProbabilityHandler<O> probabilityHandler;
+		protected IndexedProbabilityHandler<O> indexedProbabilityHandler;
+
+		// Set by nextInToken()
+		protected O inToken;
+		protected String inTokenText;
+
+		private volatile int tokensWritten = 0;
+		private volatile O lastTokenWritten;
+		private volatile int tokensRead = 0;
+		private final RingBuffer lastInToken = new RingBuffer(10);
+
+		/**
+		 * New job.
+		 *
+		 * @param aProcess the process.
+		 * @param aNumTokens the number of tokens or -1 if it is not known in advance.
+		 * @param aNumDocuments the number of documents reported to the metrics.
+		 * @param aSanitizer the sanitizer used by {@link #isAcceptable(String)} or {@code null}
+		 *     if the tokens are sent unchecked.
+		 */
+		public
+		TaggingJob(
+				final TreeTaggerProcess aProcess,
+				final int aNumTokens,
+				final int aNumDocuments,
+				final TokenSanitizer aSanitizer)
+		{
+			process = aProcess;
+			probabilities = _probabilityThreshold != null;
+			strictMode = _strictMode;
+			numTokens = aNumTokens;
+			numDocuments = aNumDocuments;
+			sanitizer = aSanitizer;
+			replacement = _replacementToken;
+			start = System.nanoTime();
+		}
+
+		/**
+		 * Record the call in the metrics. This is done before the job is completed, so the
+		 * metrics are up to date when a caller waiting for the job is woken up.
+		 */
+		private
+		void recordCall(
+				final boolean aSuccess)
+		{
+			if (!recorded.compareAndSet(false, true)) {
+				return;
+			}
+			_metrics.call(System.nanoTime() - start, numDocuments, aSuccess);
+			if (aSuccess && numTokens >= 0) {
+				// Tokens that were filtered out before sending
+				_metrics.tokensDropped(numTokens - tokensWritten);
+			}
+		}
+
+		/**
+		 * Check if the given token text can be sent to TreeTagger.
+		 *
+		 * @param aText the token text.
+		 * @return whether the token can be sent.
+		 */
+		protected
+		boolean isAcceptable(
+				final String aText)
+		{
+			return sanitizer == null || sanitizer.isAcceptable(aText);
+		}
+
+		/**
+		 * Get the next token that was sent to TreeTagger and set {@link #inToken} and
+		 * {@link #inTokenText}.
+		 *
+		 * @return {@code false} if there are no more tokens.
+		 */
+		abstract
+		boolean nextInToken();
+
+		protected
+		void setHandler(
+				final TokenHandler<O> aHandler)
+		{
+			handler = aHandler;
+			indexedHandler = aHandler instanceof IndexedTokenHandler ?
+					(IndexedTokenHandler<O>) aHandler : null;
+			probabilityHandler = aHandler instanceof ProbabilityHandler ?
+					(ProbabilityHandler<O>) aHandler : null;
+			indexedProbabilityHandler = aHandler instanceof IndexedProbabilityHandler ?
+					(IndexedProbabilityHandler<O>) aHandler : null;
+		}
+
+		protected
+		void send(
+				final O aToken,
+				final String aText)
+		throws IOException
+		{
+			lastTokenWritten = aToken;
+			tokensWritten++;
+			_metrics.tokenWritten();
+			process.send(aText);
+		}
+
+		@Override
+		void read(
+				final RecordReader aRecord)
+		throws TreeTaggerException
+		{
+			try {
+				parse(aRecord);
+			}
+			catch (final RuntimeException e) {
+				throw new TreeTaggerException("Unable to process record [" + aRecord.getRecord()
+						+ "]", e);
+			}
+		}
+
+		private
+		void parse(
+				final RecordReader aRecord)
+		throws TreeTaggerException
+		{
+			// The record is scanned directly in the buffer of the reader. Only the tag and the
+			// lemma are turned into strings and only if there is a handler to receive them.
+			final int end = aRecord.end();
+			final int tab = aRecord.indexOf(TAB, aRecord.start(), end);
+
+			// Get original token segment
+			O inToken = getNextToken(aRecord, aRecord.start(), tab >= 0 ? tab : end);
+
+			// Sometimes TT seems to return odd lines, e.g. containing only a tag but no
+			// token and no lemma. For such cases we only return the original token we
+			// got, but lemma and pos will be null.
+			if (tab < 0) {
+				return;
+			}
+
+			if (!probabilities) {
+				// Fields are separated by tabs: token, tag, lemma
+				int posEnd = aRecord.indexOf(TAB, tab + 1, end);
+				if (posEnd < 0) {
+					throw new TreeTaggerException("Unable to parse pos/lemma from ["
+							+ aRecord.getString(tab + 1, end) + "] in [" + aRecord.getRecord()
+							+ "]");
+				}
+				int lemmaEnd = aRecord.indexOf(TAB, posEnd + 1, end);
+				if (lemmaEnd < 0) {
+					lemmaEnd = end;
+				}
+
+				try {
+					notifyToken(aRecord, inToken, aRecord.trimStart(tab + 1, posEnd),
+							aRecord.trimEnd(tab + 1, posEnd), aRecord.trimStart(posEnd + 1,
+									lemmaEnd), aRecord.trimEnd(posEnd + 1, lemmaEnd));
+				}
+				catch (Throwable e) {
+					throw new TreeTaggerException(
+							"Unable to parse pos/lemma from ["
+									+ aRecord.getString(tab + 1, end) + "] in ["
+									+ aRecord.getRecord() + "]", e);
+				}
+				return;
+			}
+
+			// Each tab-separated field following the token contains one candidate: tag, lemma
+			// and probability separated by spaces.
+			int from = tab + 1;
+			boolean first = true;
+			while (from < end) {
+				int to = aRecord.indexOf(TAB, from, end);
+				if (to < 0) {
+					to = end;
+				}
+
+				try {
+					int posEnd = aRecord.indexOf(SPACE, from, to);
+					int lemmaEnd = aRecord.indexOf(SPACE, posEnd + 1, to);
+					int probEnd = aRecord.indexOf(SPACE, lemmaEnd + 1, to);
+					if (posEnd < 0 || lemmaEnd < 0) {
+						throw new IllegalArgumentException("Expected three fields");
+					}
+					if (probEnd < 0) {
+						probEnd = to;
+					}
+
+					int posFrom = aRecord.trimStart(from, posEnd);
+					int posTo = aRecord.trimEnd(from, posEnd);
+					int lemmaFrom = aRecord.trimStart(posEnd + 1, lemmaEnd);
+					int lemmaTo = aRecord.trimEnd(posEnd + 1, lemmaEnd);
+
+					// Notify the handler for the token and the best tag/lemma
+					if (first) {
+						notifyToken(aRecord, inToken, posFrom, posTo, lemmaFrom, lemmaTo);
+					}
+
+					// If a handler for the probabilities is present then notify it
+					if (indexedProbabilityHandler != null) {
+						int tag = getTagIndex(aRecord, posFrom, posTo);
+						double prob = aRecord.parseDouble(lemmaEnd + 1, probEnd);
+						CharSequence lemma = aRecord.decode(lemmaFrom, lemmaTo);
+
 						if (TRACE) {
-							System.err.println("["+TreeTaggerWrapper.this+
-									"|TRACE] ("+_tokensRead+") START ["+outRecord+"]");
+							System.err.println(" -- POS: [" + tag + "] -- LEMMA: ["
+									+ lemma + "] -- PROBABILITY: [" + prob + "]");
 						}
-	    				continue;
-	    			}
 
-	    			if (sgmlMode ? ENDOFTEXT.equals(outRecord) : outRecord.startsWith(ENDOFTEXT+'\t')) {
+						indexedProbabilityHandler.probability(tag, lemma, prob);
+					}
+					else if (probabilityHandler != null) {
+						String posTag = aRecord.getTag(posFrom, posTo);
+						String lemma = aRecord.getString(lemmaFrom, lemmaTo);
+						double prob = aRecord.parseDouble(lemmaEnd + 1, probEnd);
+
 						if (TRACE) {
-							System.err.println("["+TreeTaggerWrapper.this+
-									"|TRACE] ("+_tokensRead+") COMPLETE ["+outRecord+"]");
+							System.err.println(" -- POS: [" + posTag + "] -- LEMMA: ["
+									+ lemma + "] -- PROBABILITY: [" + prob + "]");
 						}
-	    				break;
-	    			}
-
-	    			if (inText) {
-	    				// Get word and tag
-	    				String outToken = null;
-
-						// Sometimes TT seems to return odd lines, e.g. containing only a tag but no
-						// token and no lemma. For such cases we only return the original token we
-						// got, but lemma and pos will be null.
-	    				String fields1[] = RE_TAB.split(outRecord, _probabilityThreshold != null ? 0 : 2);
-	    				if (fields1.length > 0) {
-	    					outToken = fields1[0];
-	    				}
-	    				
-	                    // Record what we have sent - getNextToken uses this when throwing an
-                        // exception.
-                        _lastOutToken.add(outToken);
-                        _lastOutRecord = outRecord;
-
-                        // Get original token segment
-                        O inToken = getNextToken(outToken);
-
-	    				// If a pos and lemma is present, return them.
-	    				for (int n = 1; n < fields1.length; n++) {
-							String fields2[] = _probabilityThreshold != null ? RE_WHITESPACE
-									.split(fields1[n]) : RE_TAB.split(fields1[n]);
-		    				try {
-	                            String posTag = fields2[0].trim().intern();
-	                            String lemma  = fields2[1].trim();
-	                            String prob = _probabilityThreshold != null ? fields2[2] : null;
-	
-	                            if (TRACE) {
-	                                System.err.println(" -- POS: [" + posTag + "] -- LEMMA: ["
-	                                        + lemma + "] -- PROBABILITY: [" + prob + "]");
-	                            }
-	                            
-	                            // Notify the handler for the token and the best tag/lemma
-	                            if (_handler != null && n == 1) {
-	                                _handler.token(inToken, posTag, lemma);
-	                            }
-	                            
-	                            // If probabilities are provided and a handler for them is present
-	                            // then notify the probability handler
-	                            if (prob != null && _probabilityHandler != null) {
-	                                _probabilityHandler.probability(posTag, lemma, Double.valueOf(prob));
-	                            }
-	                            else {
-	                            	// If there is no probability handler, then we do not have to
-	                            	// process all the fields.
-	                            	break;
-	                            }
-		    				}
-		    				catch (Throwable e) {
-								throw new TreeTaggerException(
-										"Unable to parse pos/lemma/probability from [" + fields1[n]
-												+ "] in [" + _lastOutRecord + "]", e);
-		    				}
-	    				}
-	    			}
-	    		}
-    		}
-    		catch (TreeTaggerException e) {
-    			_exception = e;
-    		}
-    		catch (final IOException e) {
-				_exception = e;
-    		}
-    		catch (final Throwable e) {
-				_exception = new TreeTaggerException("Unable to process record [" + _lastOutRecord
-						+ "]", e);
-    		}
 
-    		synchronized (this) {
-        		notifyAll();
+						probabilityHandler.probability(posTag, lemma, prob);
+					}
+					else {
+						// If there is no probability handler, then we do not have to
+						// process all the fields.
+						break;
+					}
+				}
+				catch (Throwable e) {
+					throw new TreeTaggerException(
+							"Unable to parse pos/lemma/probability from ["
+									+ aRecord.getString(from, to) + "] in ["
+									+ aRecord.getRecord() + "]", e);
+				}
+
+				first = false;
+				from = to + 1;
 			}
-    	}
+		}
 
-    	private 
-    	O getNextToken(
-    	        final String aOutToken)
-    	{
-            // Get original token segment
-            if (tokenIterator.hasNext()) {
-                O inToken = tokenIterator.next();
-                _tokensRead++;
-                
-                final String inTokenText = getText(inToken);
-                _lastInToken.add(inTokenText);
- 
-                if (_strictMode) {
-                    if (!Util.matches(inTokenText, aOutToken)) {
-                        throw new IllegalStateException("[" + TreeTaggerWrapper.this
-                                + "] Token stream out of sync.\n" + getStatus());
-                    }
-                }
-                
-                if (TRACE) {
-                    System.err.print("[" + TreeTaggerWrapper.this + "|TRACE] ("
-                            + _tokensRead + ") IN [" + inTokenText + "] -- OUT: ["
-                            + aOutToken + "]");
-                }
-                
-                return inToken;
-            }
-            else {
-                throw new IllegalStateException("[" + TreeTaggerWrapper.this
-                        + "] Have not seen ENDOFTEXT-marker but no more "
-                        + "tokens are available.\n" + "TT returned: [" + _lastOutRecord
-                        + "]\n" + getStatus());
-            }
-    	}
-    	
-    	public
-    	Throwable getException() {
-			return _exception;
+		/**
+		 * Get the index of a tag in the tagset of the model or -1 if it is not part of it.
+		 */
+		private
+		int getTagIndex(
+				final RecordReader aRecord,
+				final int aFrom,
+				final int aTo)
+		{
+			int tag = aRecord.getTagIndex(aFrom, aTo);
+			return tag < process.getTagCount() ? tag : -1;
+		}
+
+		/**
+		 * Notify the handler about a token and its best tag and lemma.
+		 */
+		private
+		void notifyToken(
+				final RecordReader aRecord,
+				final O aToken,
+				final int aPosFrom,
+				final int aPosTo,
+				final int aLemmaFrom,
+				final int aLemmaTo)
+		{
+			if (indexedHandler != null) {
+				int tag = getTagIndex(aRecord, aPosFrom, aPosTo);
+				CharSequence lemma = aRecord.decode(aLemmaFrom, aLemmaTo);
+
+				if (TRACE) {
+					System.err.println(" -- POS: [" + tag + "] -- LEMMA: [" + lemma + "]");
+				}
+
+				indexedHandler.token(aToken, tag, lemma);
+			}
+			else if (handler != null) {
+				String posTag = aRecord.getTag(aPosFrom, aPosTo);
+				String lemma = aRecord.getString(aLemmaFrom, aLemmaTo);
+
+				if (TRACE) {
+					System.err.println(" -- POS: [" + posTag + "] -- LEMMA: [" + lemma + "]");
+				}
+
+				handler.token(aToken, posTag, lemma);
+			}
+		}
+
+		private
+		O getNextToken(
+				final RecordReader aRecord,
+				final int aFrom,
+				final int aTo)
+		{
+			// Get original token segment
+			if (nextInToken()) {
+				tokensRead++;
+				_metrics.tokenRead();
+
+				lastInToken.add(inTokenText);
+
+				if (strictMode) {
+					if (!Util.matches(inTokenText, aRecord.decode(aFrom, aTo))) {
+						throw new IllegalStateException("[" + TreeTaggerWrapper.this
+								+ "] Token stream out of sync.\n" + getStatus());
+					}
+				}
+
+				if (TRACE) {
+					System.err.print("[" + TreeTaggerWrapper.this + "|TRACE] ("
+							+ tokensRead + ") IN [" + inTokenText + "] -- OUT: ["
+							+ aRecord.getString(aFrom, aTo) + "]");
+				}
+
+				return inToken;
+			}
+			else {
+				throw new IllegalStateException("[" + TreeTaggerWrapper.this
+						+ "] Have not seen ENDOFTEXT-marker but no more "
+						+ "tokens are available.\n" + "TT returned: [" + aRecord.getRecord()
+						+ "]\n" + getStatus());
+			}
 		}
-    }
 
+		@Override
+		String getStatus()
+		{
+			StringBuilder sb = new StringBuilder();
+			sb.append(getProcessStatus(process));
+
+			sb.append("Last output received: ");
+			sb.append("[").append(process.getRecentOutput()).append("]");
+			sb.append('\n');
+
+			sb.append("Last token sent (#").append(tokensWritten).append("): ");
+			O lastWritten = lastTokenWritten;
+			if (lastWritten != null) {
+				sb.append("[").append(getText(lastWritten)).append("]");
+			}
+			else {
+				sb.append("none");
+			}
+			sb.append('\n');
+
+			sb.append("Last " + lastInToken.size() + " tokens read: ");
+			sb.append("[").append(lastInToken).append("]");
+			sb.append('\n');
+
+			sb.append("Tokens originally recieved: ")
+					.append(numTokens >= 0 ? String.valueOf(numTokens) : "streaming").append('\n');
+			sb.append("Tokens written            : ").append(tokensWritten).append('\n');
+			sb.append("Tokens read               : ").append(tokensRead).append('\n');
+
+			return sb.toString();
+		}
+
+		@Override
+		void completed()
+		{
+			release();
+			recordCall(true);
+			super.completed();
+		}
+
+		@Override
+		void failed(
+				final Throwable aException)
+		{
+			release();
+			recordCall(false);
+			if (aException instanceof TreeTaggerException || aException instanceof IOException) {
+				super.failed(aException);
+			}
+			else {
+				super.failed(new TreeTaggerException(aException));
+			}
+		}
+
+		/**
+		 * The wrapper remembers the last job for status information - do not hold on to all
+		 * the tokens.
+		 */
+		protected
+		void release()
+		{
+			handler = null;
+			indexedHandler = null;
+			probabilityHandler = null;
+			indexedProbabilityHandler = null;
+			inToken = null;
+		}
+	}
+
+	/**
+	 * Job tagging a list of documents which are fully available in advance. The writer checks
+	 * each token once and records the positions of the tokens it could not send as they are. The
+	 * reader uses these positions to skip or replace the same tokens without checking them again.
+	 */
 	private
-    class Writer
-    implements Runnable
-    {
-		private final Iterator<O> tokenIterator;
-		private Throwable _exception;
-		private PrintWriter _pw;
+	class BatchJob
+	extends TaggingJob
+	{
+		private final List<? extends TokenHandler<O>> handlers;
+		private final int numDocuments;
+		// Position of the first token of each document counted over all documents
+		private final int[] offsets;
+
+		private List<? extends Collection<O>> documents;
+		private Iterator<O> tokenIterator;
+
+		// Positions of the rejected tokens in ascending order. The writer stores a position
+		// before it publishes the new count, so the reader sees all positions below the count.
+		private volatile int[] rejected;
+		private volatile int numRejected = 0;
+
+		// Only used by the reader
+		private int readPosition;
+		private int rejectedCursor;
+
+		public
+		BatchJob(
+				final TreeTaggerProcess aProcess,
+				final List<? extends Collection<O>> aDocuments,
+				final List<? extends TokenHandler<O>> aHandlers,
+				final int aNumTokens,
+				final TokenSanitizer aSanitizer)
+		{
+			super(aProcess, aNumTokens, aDocuments.size(), aSanitizer);
+			documents = aDocuments;
+			handlers = aHandlers;
+			numDocuments = aDocuments.size();
+			offsets = new int[numDocuments];
+			for (int i = 1; i < numDocuments; i++) {
+				offsets[i] = offsets[i - 1] + aDocuments.get(i - 1).size();
+			}
+		}
 
-    	public
-    	Writer(
-    			final Iterator<O> aTokenIterator)
+		@Override
+		boolean write(
+				final int aText,
+				final TreeTaggerProcess aProcess)
+		throws IOException
 		{
-    		tokenIterator = aTokenIterator;
+			Iterator<O> i = documents.get(aText).iterator();
+			for (int position = offsets[aText]; i.hasNext(); position++) {
+				O token = i.next();
+				String text = getText(token);
+				if (!isAcceptable(text)) {
+					reject(position);
+					if (replacement == null) {
+						if (TRACE && text != null) {
+							System.err.println("[" + TreeTaggerWrapper.this
+									+ "|TRACE] Skipping illegal token [" + text + "]");
+						}
+						continue;
+					}
+					text = replacement;
+					_metrics.tokenReplaced();
+				}
+				send(token, text);
+			}
+			return aText < numDocuments - 1;
 		}
 
-    	public
-    	void run()
-    	{
-    		try {
-    			final OutputStream os = _proc.getOutputStream();
+		private
+		void reject(
+				final int aPosition)
+		{
+			int n = numRejected;
+			int[] r = rejected;
+			if (r == null) {
+				r = new int[16];
+				rejected = r;
+			}
+			else if (n == r.length) {
+				r = Arrays.copyOf(r, n * 2);
+				rejected = r;
+			}
+			r[n] = aPosition;
+			numRejected = n + 1;
+		}
 
-    			_pw = new PrintWriter(new BufferedWriter(
-    			    new OutputStreamWriter(os, _model.getEncoding())));
+		private
+		boolean isRejected(
+				final int aPosition)
+		{
+			// The writer has always passed the position before the reader gets to it.
+			int n = numRejected;
+			if (n == 0) {
+				return false;
+			}
+			int[] r = rejected;
+			while (rejectedCursor < n && r[rejectedCursor] < aPosition) {
+				rejectedCursor++;
+			}
+			return rejectedCursor < n && r[rejectedCursor] == aPosition;
+		}
 
-    			send(STARTOFTEXT);
+		@Override
+		void startOfText(
+				final int aText)
+		{
+			tokenIterator = documents.get(aText).iterator();
+			readPosition = offsets[aText];
+			setHandler(handlers.get(aText));
+		}
 
-    			while (tokenIterator.hasNext()) {
-    				O token = tokenIterator.next();
-    				_lastTokenWritten = token;
-    				_tokensWritten++;
-    				send(getText(token));
-    			}
+		@Override
+		boolean nextInToken()
+		{
+			while (tokenIterator.hasNext()) {
+				O token = tokenIterator.next();
+				if (!isRejected(readPosition++)) {
+					inToken = token;
+					inTokenText = getText(token);
+					return true;
+				}
+				if (replacement != null) {
+					inToken = token;
+					inTokenText = replacement;
+					return true;
+				}
+			}
+			return false;
+		}
 
-    			send(ENDOFTEXT);
-				send(_model.getFlushSequence());
-    		}
-    		catch (final Throwable e) {
-    			_exception = e;
-    		}
-    	}
+		@Override
+		protected
+		void release()
+		{
+			super.release();
+			documents = null;
+			tokenIterator = null;
+			rejected = null;
+		}
+	}
 
-    	private
-    	void send(
-    			final String line)
-    	{
-    		_pw.println(line);
-    		// System.out.println("--> "+line);
-    		_pw.flush();
-    	}
+	/**
+	 * Job tagging a stream of tokens of unknown length. The writer thread consumes the source
+	 * and keeps the tokens in a bounded {@link TokenWindow} until the reader thread has received
+	 * their records. If the window is full, the current text is ended and flushed through
+	 * TreeTagger, and the writer waits until the reader has made room.
+	 */
+	private
+	class StreamJob
+	extends TaggingJob
+	{
+		private final TokenWindow<O> window;
+
+		private Iterator<? extends O> source;
 
-    	public
-    	Throwable getException()
+		public
+		StreamJob(
+				final TreeTaggerProcess aProcess,
+				final Iterator<? extends O> aSource,
+				final TokenHandler<O> aHandler,
+				final int aWindowSize,
+				final TokenSanitizer aSanitizer)
 		{
-			return _exception;
+			super(aProcess, -1, 1, aSanitizer);
+			source = aSource;
+			window = new TokenWindow<O>(aWindowSize);
+			setHandler(aHandler);
 		}
-    }
+
+		@Override
+		boolean write(
+				final int aText,
+				final TreeTaggerProcess aProcess)
+		throws Exception
+		{
+			window.awaitNotFull();
+			while (hasNextSourceToken()) {
+				if (window.isFull()) {
+					return true;
+				}
+
+				O token = nextSourceToken();
+				String text = getText(token);
+
+				// In normal mode sort out or replace all tokens that we cannot handle.
+				if (!isAcceptable(text)) {
+					if (replacement == null) {
+						if (TRACE) {
+							System.err.println("[" + TreeTaggerWrapper.this
+									+ "|TRACE] Skipping illegal token [" + text + "]");
+						}
+						_metrics.tokensDropped(1);
+						continue;
+					}
+					text = replacement;
+					_metrics.tokenReplaced();
+				}
+
+				window.add(token, text);
+				send(token, text);
+			}
+			return false;
+		}
+
+		private
+		boolean hasNextSourceToken()
+		throws TreeTaggerException
+		{
+			try {
+				return source.hasNext();
+			}
+			catch (RuntimeException e) {
+				throw new TreeTaggerException("Unable to read token from source", e);
+			}
+		}
+
+		private
+		O nextSourceToken()
+		throws TreeTaggerException
+		{
+			try {
+				return source.next();
+			}
+			catch (RuntimeException e) {
+				throw new TreeTaggerException("Unable to read token from source", e);
+			}
+		}
+
+		@Override
+		boolean isBlocked()
+		{
+			return window.isFull();
+		}
+
+		@Override
+		void startOfText(
+				final int aText)
+		{
+			// Texts are only used to flush the window, all tokens go to the same handler.
+		}
+
+		@Override
+		boolean nextInToken()
+		{
+			if (window.take()) {
+				inToken = window.getToken();
+				inTokenText = window.getText();
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
+		@Override
+		protected
+		void release()
+		{
+			super.release();
+			source = null;
+			window.clear();
+		}
+	}
+
+	/**
+	 * View on a collection of tokens which skips the tokens that cannot be sent to TreeTagger.
+	 */
+	private
+	class SanitizedCollection
+	extends AbstractCollection<O>
+	{
+		private final Collection<O> tokens;
+		private final TokenSanitizer sanitizer;
+		private int size = -1;
+
+		public
+		SanitizedCollection(
+				final Collection<O> aTokens,
+				final TokenSanitizer aSanitizer)
+		{
+			tokens = aTokens;
+			sanitizer = aSanitizer;
+		}
+
+		@Override
+		public
+		Iterator<O> iterator()
+		{
+			return new Iterator<O>()
+			{
+				private final Iterator<O> i = tokens.iterator();
+				private O next;
+				private boolean hasNext;
+
+				public boolean hasNext()
+				{
+					while (!hasNext && i.hasNext()) {
+						O token = i.next();
+						String text = getText(token);
+						if (sanitizer.isAcceptable(text)) {
+							next = token;
+							hasNext = true;
+						}
+						else if (TRACE && text != null) {
+							System.err.println("[" + TreeTaggerWrapper.this
+									+ "|TRACE] Skipping illegal token [" + text + "]");
+						}
+					}
+					return hasNext;
+				}
+
+				public O next()
+				{
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					O token = next;
+					next = null;
+					hasNext = false;
+					return token;
+				}
+
+				public void remove()
+				{
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		/**
+		 * Get the number of tokens which are not skipped. It is determined once, as the original
+		 * collection must not be modified while the view is used.
+		 */
+		@Override
+		public
+		int size()
+		{
+			if (size < 0) {
+				int n = 0;
+				for (Iterator<O> i = iterator(); i.hasNext(); i.next()) {
+					n++;
+				}
+				size = n;
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * Collects the tokens analyzed in {@link #processAsync(Collection)}.
+	 */
+	private
+	class TokenCollector
+	implements ProbabilityHandler<O>
+	{
+		private final List<TaggedToken<O>> tokens = new ArrayList<TaggedToken<O>>();
+		private final boolean probabilities;
+		private List<TaggedToken.Candidate> candidates;
+
+		public
+		TokenCollector(
+				final boolean aProbabilities)
+		{
+			probabilities = aProbabilities;
+		}
+
+		public
+		void token(
+				final O aToken,
+				final String aPos,
+				final String aLemma)
+		{
+			candidates = probabilities ? new ArrayList<TaggedToken.Candidate>() : null;
+			tokens.add(new TaggedToken<O>(aToken, aPos, aLemma, candidates));
+		}
+
+		public
+		void probability(
+				final String aPos,
+				final String aLemma,
+				final double aProbability)
+		{
+			candidates.add(new TaggedToken.Candidate(aPos, aLemma, aProbability));
+		}
+
+		public
+		List<TaggedToken<O>> getTokens()
+		{
+			return tokens;
+		}
+	}
 }
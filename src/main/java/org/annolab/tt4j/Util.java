@@ -154,6 +154,23 @@ class Util
     boolean matches(
     		final String tokenSent,
     		final String tokenReturned)
+    {
+    	return matches(tokenSent, (CharSequence) tokenReturned);
+    }
+
+    /**
+     * Check if the token returned by TreeTagger matches the token sent. TreeTagger replaces
+     * characters it does not know with a question mark, so a question mark in the returned token
+     * matches any character.
+     *
+     * @param tokenSent token sent to TreeTagger
+     * @param tokenReturned token returned from TreeTagger, e.g. decoded into a reusable buffer.
+     * @return if the token returned matches the token sent.
+     */
+    public static
+    boolean matches(
+    		final String tokenSent,
+    		final CharSequence tokenReturned)
     {
     	if (tokenSent == null && tokenReturned == null) {
     		return true;
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public
+class ByteRingBufferTest
+{
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	@Test
+	public
+	void testByteRingBuffer()
+	{
+		ByteRingBuffer rb = new ByteRingBuffer(5);
+		assertEquals("", rb.toString(ASCII));
+		rb.add("abc".getBytes(ASCII), 0, 3);
+		assertEquals("abc", rb.toString(ASCII));
+		rb.add("xdefx".getBytes(ASCII), 1, 3);
+		assertEquals("bcdef", rb.toString(ASCII));
+		rb.add("0123456789".getBytes(ASCII), 0, 10);
+		assertEquals("56789", rb.toString(ASCII));
+		assertEquals(5, rb.size());
+		assertEquals(16, rb.getTotal());
+	}
+}
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Deterministic stand-in for the TreeTagger executable. It speaks the same line protocol as
+ * TreeTagger and supports the options {@code -sgml}, {@code -token}, {@code -lemma},
+ * {@code -prob} and {@code -threshold}. Other options and the model file are ignored.
+ * <p>
+ * Like TreeTagger, the output for a token is only produced once a number of following tokens
+ * has been read, so the flush sequence is required to receive the output for the last tokens.
+ * Empty lines are ignored. In SGML mode, lines enclosed in angle brackets are passed through.
+ * <p>
+ * The tag is {@code SENT} for sentence-final punctuation, {@code CD} for numbers, {@code NP} for
+ * capitalized tokens and {@code NN} otherwise. The lemma is the lower-cased token. With
+ * {@code -prob}, the tag is reported with the probability {@literal 0.9} and {@code XY} as second
+ * candidate with {@literal 0.1}, unless it is cut off by the threshold.
+ * <p>
+ * The behavior is configured through system properties, see {@link FakeTreeTaggerResolver}.
+ *
+ * @author Richard Eckart de Castilho
+ */
+public final
+class FakeTreeTagger
+{
+	static final String PROP_PREFIX = FakeTreeTagger.class.getName() + ".";
+	static final String PROP_ENCODING = PROP_PREFIX + "encoding";
+	static final String PROP_LOOKAHEAD = PROP_PREFIX + "lookahead";
+	static final String PROP_STARTUP_DELAY = PROP_PREFIX + "startupDelay";
+	static final String PROP_LATENCY = PROP_PREFIX + "latency";
+	static final String PROP_STALL_AFTER = PROP_PREFIX + "stallAfter";
+	static final String PROP_CRASH_AFTER = PROP_PREFIX + "crashAfter";
+
+	private boolean _sgml = false;
+	private boolean _token = false;
+	private boolean _lemma = false;
+	private boolean _prob = false;
+	private double _threshold = 0.1;
+
+	private final int _lookahead = Integer.getInteger(PROP_LOOKAHEAD, 3);
+	private final long _latency = Long.getLong(PROP_LATENCY, 0);
+	private final int _stallAfter = Integer.getInteger(PROP_STALL_AFTER, -1);
+	private final int _crashAfter = Integer.getInteger(PROP_CRASH_AFTER, -1);
+
+	private final Deque<String> _pending = new ArrayDeque<String>();
+	private int _pendingTokens = 0;
+	private int _tokensRead = 0;
+
+	private FakeTreeTagger(
+			final String[] aArgs)
+	{
+		for (int i = 0; i < aArgs.length; i++) {
+			String arg = aArgs[i];
+			if ("-sgml".equals(arg)) {
+				_sgml = true;
+			}
+			else if ("-token".equals(arg)) {
+				_token = true;
+			}
+			else if ("-lemma".equals(arg)) {
+				_lemma = true;
+			}
+			else if ("-prob".equals(arg)) {
+				_prob = true;
+			}
+			else if ("-threshold".equals(arg) || "-eps".equals(arg)) {
+				if ("-threshold".equals(arg)) {
+					_threshold = Double.parseDouble(aArgs[i + 1]);
+				}
+				i++;
+			}
+		}
+	}
+
+	public static
+	void main(
+			final String[] aArgs)
+	throws IOException, InterruptedException
+	{
+		// Simulate loading the model
+		Thread.sleep(Long.getLong(PROP_STARTUP_DELAY, 0));
+
+		new FakeTreeTagger(aArgs).run();
+	}
+
+	private
+	void run()
+	throws IOException, InterruptedException
+	{
+		Charset charset = Charset.forName(System.getProperty(PROP_ENCODING, "UTF-8"));
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, charset));
+		Writer out = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), charset);
+		StringBuilder sb = new StringBuilder();
+
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.length() > 0) {
+				read(line);
+				while (_pendingTokens > _lookahead) {
+					emit(sb, _pending.poll());
+				}
+			}
+
+			// Only pass on the output when all pending input has been answered
+			if (!in.ready() && sb.length() > 0) {
+				write(out, sb);
+			}
+		}
+
+		while (!_pending.isEmpty()) {
+			emit(sb, _pending.poll());
+		}
+		write(out, sb);
+	}
+
+	private
+	void read(
+			final String aLine)
+	throws InterruptedException
+	{
+		if (!(_sgml && aLine.startsWith("<") && aLine.endsWith(">"))) {
+			_tokensRead++;
+			if (_tokensRead == _crashAfter) {
+				System.err.println("Fake TreeTagger crashed after " + _tokensRead + " tokens");
+				System.exit(1);
+			}
+			if (_tokensRead == _stallAfter) {
+				// Stop responding, but stay alive
+				Thread.sleep(Long.MAX_VALUE);
+			}
+			_pendingTokens++;
+		}
+		_pending.add(aLine);
+	}
+
+	private
+	void emit(
+			final StringBuilder aOut,
+			final String aLine)
+	{
+		if (_sgml && aLine.startsWith("<") && aLine.endsWith(">")) {
+			aOut.append(aLine).append('\n');
+			return;
+		}
+		_pendingTokens--;
+
+		String tag = tag(aLine);
+		String lemma = aLine.toLowerCase(Locale.US);
+		if (_token) {
+			aOut.append(aLine).append('\t');
+		}
+		if (_prob) {
+			candidate(aOut, tag, lemma, "0.900000");
+			if (0.1 >= _threshold * 0.9) {
+				aOut.append('\t');
+				candidate(aOut, "XY", lemma, "0.100000");
+			}
+		}
+		else {
+			aOut.append(tag);
+			if (_lemma) {
+				aOut.append('\t').append(lemma);
+			}
+		}
+		aOut.append('\n');
+	}
+
+	private
+	void candidate(
+			final StringBuilder aOut,
+			final String aTag,
+			final String aLemma,
+			final String aProbability)
+	{
+		aOut.append(aTag).append(' ');
+		if (_lemma) {
+			aOut.append(aLemma).append(' ');
+		}
+		aOut.append(aProbability);
+	}
+
+	private
+	void write(
+			final Writer aOut,
+			final StringBuilder aBuffer)
+	throws IOException, InterruptedException
+	{
+		// Simulate the time needed to tag
+		if (_latency > 0) {
+			Thread.sleep(_latency);
+		}
+		aOut.append(aBuffer);
+		aOut.flush();
+		aBuffer.setLength(0);
+	}
+
+	/**
+	 * Get the tag assigned to a token.
+	 *
+	 * @param aToken the token.
+	 * @return the tag.
+	 */
+	static
+	String tag(
+			final String aToken)
+	{
+		char c = aToken.charAt(0);
+		if (c == '.' || c == '!' || c == '?') {
+			return "SENT";
+		}
+		if (Character.isDigit(c)) {
+			return "CD";
+		}
+		if (Character.isUpperCase(c)) {
+			return "NP";
+		}
+		return "NN";
+	}
+}
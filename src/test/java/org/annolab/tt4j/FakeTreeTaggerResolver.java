@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import static org.annolab.tt4j.FakeTreeTagger.PROP_CRASH_AFTER;
+import static org.annolab.tt4j.FakeTreeTagger.PROP_ENCODING;
+import static org.annolab.tt4j.FakeTreeTagger.PROP_LATENCY;
+import static org.annolab.tt4j.FakeTreeTagger.PROP_LOOKAHEAD;
+import static org.annolab.tt4j.FakeTreeTagger.PROP_STALL_AFTER;
+import static org.annolab.tt4j.FakeTreeTagger.PROP_STARTUP_DELAY;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Provides a shell script which runs the {@link FakeTreeTagger} in a new JVM using the class
+ * path of the current JVM. Latency, stalls and crashes can be injected to test the behavior of
+ * the wrapper under load and its recovery from failures. Changes to the configuration take effect
+ * when the next process is started. Requires a Unix-like system.
+ *
+ * @author Richard Eckart de Castilho
+ */
+public
+class FakeTreeTaggerResolver
+implements ExecutableResolver
+{
+	private final Map<String, Object> _properties = new LinkedHashMap<String, Object>();
+	private File _script;
+
+	/**
+	 * Check if the fake tagger can be used on this platform.
+	 *
+	 * @return whether the platform is supported.
+	 */
+	public static
+	boolean isSupported()
+	{
+		return File.separatorChar == '/';
+	}
+
+	/**
+	 * Set the encoding used to communicate with the wrapper. It has to match the encoding of the
+	 * model. Default: UTF-8.
+	 *
+	 * @param aEncoding the encoding.
+	 */
+	public
+	void setEncoding(
+			final String aEncoding)
+	{
+		set(PROP_ENCODING, aEncoding);
+	}
+
+	/**
+	 * Set the number of tokens which have to follow a token before its output is produced.
+	 * Default: 3.
+	 *
+	 * @param aTokens the number of tokens.
+	 */
+	public
+	void setLookahead(
+			final int aTokens)
+	{
+		set(PROP_LOOKAHEAD, aTokens);
+	}
+
+	/**
+	 * Set the time the process needs to start, simulating the loading of the model.
+	 *
+	 * @param aMillis the delay in milliseconds.
+	 */
+	public
+	void setStartupDelay(
+			final long aMillis)
+	{
+		set(PROP_STARTUP_DELAY, aMillis);
+	}
+
+	/**
+	 * Set the time the process needs before it produces output.
+	 *
+	 * @param aMillis the delay in milliseconds.
+	 */
+	public
+	void setLatency(
+			final long aMillis)
+	{
+		set(PROP_LATENCY, aMillis);
+	}
+
+	/**
+	 * Let the process stop responding when it receives the given token.
+	 *
+	 * @param aTokens the number of the token counted from the start of the process (1-based),
+	 *     or -1 to disable.
+	 */
+	public
+	void setStallAfter(
+			final int aTokens)
+	{
+		set(PROP_STALL_AFTER, aTokens);
+	}
+
+	/**
+	 * Let the process exit with an error when it receives the given token.
+	 *
+	 * @param aTokens the number of the token counted from the start of the process (1-based),
+	 *     or -1 to disable.
+	 */
+	public
+	void setCrashAfter(
+			final int aTokens)
+	{
+		set(PROP_CRASH_AFTER, aTokens);
+	}
+
+	private
+	void set(
+			final String aProperty,
+			final Object aValue)
+	{
+		_properties.put(aProperty, aValue);
+		// The script is re-created with the new settings
+		destroy();
+	}
+
+	public
+	void setPlatformDetector(
+			final PlatformDetector aPlatform)
+	{
+		// Not needed
+	}
+
+	public
+	String getExecutable()
+	throws IOException
+	{
+		if (_script == null) {
+			String java = new File(new File(System.getProperty("java.home"), "bin"), "java")
+					.getAbsolutePath();
+
+			// The process may run in a different working directory
+			StringBuilder classpath = new StringBuilder();
+			for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+				if (classpath.length() > 0) {
+					classpath.append(File.pathSeparator);
+				}
+				classpath.append(new File(entry).getAbsolutePath());
+			}
+
+			StringBuilder cmd = new StringBuilder();
+			cmd.append("#!/bin/sh\nexec \"").append(java).append('"');
+			for (Map.Entry<String, Object> e : _properties.entrySet()) {
+				cmd.append(" \"-D").append(e.getKey()).append('=').append(e.getValue())
+						.append('"');
+			}
+			cmd.append(" -cp \"").append(classpath).append("\" ")
+					.append(FakeTreeTagger.class.getName()).append(" \"$@\"\n");
+
+			File script = File.createTempFile("fake-tree-tagger", ".sh");
+			Util.writeFile(cmd.toString(), script, "UTF-8");
+			if (!script.setExecutable(true)) {
+				throw new IOException("Unable to make [" + script + "] executable");
+			}
+			_script = script;
+		}
+		return _script.getAbsolutePath();
+	}
+
+	public
+	void destroy()
+	{
+		if (_script != null) {
+			_script.delete();
+			_script = null;
+		}
+	}
+}
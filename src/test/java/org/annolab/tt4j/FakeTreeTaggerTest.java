@@ -0,0 +1,753 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public
+class FakeTreeTaggerTest
+{
+	private static final List<String> TOKENS = asList("This", "is", "test", "42", ".");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FakeTreeTaggerResolver resolver;
+	private TreeTaggerWrapper<String> tt;
+
+	@Before
+	public
+	void setUp()
+	throws Exception
+	{
+		Assume.assumeTrue(FakeTreeTaggerResolver.isSupported());
+
+		resolver = new FakeTreeTaggerResolver();
+		tt = new TreeTaggerWrapper<String>();
+		tt.setExecutableProvider(resolver);
+		tt.setStrictMode(true);
+		setModel();
+	}
+
+	@After
+	public
+	void tearDown()
+	{
+		if (tt != null) {
+			tt.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testProcess()
+	throws Exception
+	{
+		assertEquals(asList("This NP this", "is NN is", "test NN test", "42 CD 42", ". SENT ."),
+				run(TOKENS));
+		assertEquals(asList("Test NP test"), run(asList("Test")));
+		assertEquals(1, tt.getRestartCount());
+	}
+
+	@Test
+	public
+	void testProbabilities()
+	throws Exception
+	{
+		tt.setProbabilityThreshold(0.1);
+		assertEquals(asList("is NN is 0.9", "is XY is 0.1"), run(asList("is")));
+
+		tt.setProbabilityThreshold(0.5);
+		assertEquals(asList("is NN is 0.9"), run(asList("is")));
+	}
+
+	@Test
+	public
+	void testStream()
+	throws Exception
+	{
+		tt.setStreamWindowSize(2);
+
+		List<String> input = new ArrayList<String>();
+		for (int i = 0; i < 10; i++) {
+			input.addAll(TOKENS);
+		}
+
+		final List<String> actual = new ArrayList<String>();
+		tt.setHandler(new TokenHandler<String>()
+		{
+			public void token(String aToken, String aPos, String aLemma)
+			{
+				actual.add(aToken);
+			}
+		});
+		tt.process(input.iterator());
+
+		assertEquals(input, actual);
+	}
+
+	@Test
+	public
+	void testProcessAsync()
+	throws Exception
+	{
+		resolver.setLatency(20);
+
+		// Pipeline several requests into the same process. The input of later requests is
+		// written while the output of earlier ones is still pending.
+		List<CompletableFuture<List<TaggedToken<String>>>> futures =
+				new ArrayList<CompletableFuture<List<TaggedToken<String>>>>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(tt.processAsync(asList("Request", String.valueOf(i), ".")));
+		}
+		assertFalse(futures.get(9).isDone());
+
+		for (int i = 0; i < futures.size(); i++) {
+			List<String> actual = new ArrayList<String>();
+			for (TaggedToken<String> token : futures.get(i).get(10, TimeUnit.SECONDS)) {
+				actual.add(token.toString());
+			}
+			assertEquals(asList("Request NP request", i + " CD " + i, ". SENT ."), actual);
+		}
+		assertEquals(1, tt.getRestartCount());
+		assertEquals(10, tt.getMetrics().getCallsCompleted());
+	}
+
+	@Test
+	public
+	void testProcessAsyncCrash()
+	throws Exception
+	{
+		resolver.setCrashAfter(3);
+		try {
+			tt.processAsync(TOKENS).get(10, TimeUnit.SECONDS);
+			fail("Expected the process to crash");
+		}
+		catch (ExecutionException e) {
+			// The failure is passed on, not wrapped again
+			assertTrue(e.getCause() instanceof TreeTaggerException);
+			assertFalse(e.getCause().getCause() instanceof TreeTaggerException);
+			assertTrue(e.getCause().getMessage().contains("crashed after 3 tokens"));
+		}
+	}
+
+	@Test
+	public
+	void testProcessAsyncParked()
+	throws Exception
+	{
+		resolver.setLatency(200);
+		tt.setProcessCacheSize(2);
+
+		// The parked process completes the pending request
+		CompletableFuture<List<TaggedToken<String>>> future = tt.processAsync(TOKENS);
+		tt.setProbabilityThreshold(0.1);
+		assertEquals(5, future.get(10, TimeUnit.SECONDS).size());
+
+		// The parked process is evicted and the pending request fails
+		tt.setProcessCacheSize(1);
+		future = tt.processAsync(TOKENS);
+		tt.setProbabilityThreshold(null);
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("Expected pending request to fail");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TreeTaggerException);
+		}
+	}
+
+	@Test
+	public
+	void testProcessBatch()
+	throws Exception
+	{
+		// Documents of different length, an empty one and one containing a dropped token
+		List<List<String>> documents = new ArrayList<List<String>>();
+		List<List<String>> expected = new ArrayList<List<String>>();
+		for (int i = 0; i < 10; i++) {
+			List<String> document = new ArrayList<String>();
+			List<String> result = new ArrayList<String>();
+			for (int n = 0; n < i % 4; n++) {
+				document.add("Doc");
+				result.add("Doc NP");
+			}
+			if (i == 5) {
+				document.add("line\nbreak");
+			}
+			document.add(String.valueOf(i));
+			result.add(i + " CD");
+			documents.add(document);
+			expected.add(result);
+		}
+		documents.add(new ArrayList<String>());
+		expected.add(new ArrayList<String>());
+
+		List<TokenHandler<String>> handlers = new ArrayList<TokenHandler<String>>();
+		final List<List<String>> results = new ArrayList<List<String>>();
+		for (int i = 0; i < documents.size(); i++) {
+			final List<String> result = new ArrayList<String>();
+			handlers.add(new TokenHandler<String>()
+			{
+				public void token(String aToken, String aPos, String aLemma)
+				{
+					result.add(aToken + " " + aPos);
+				}
+			});
+			results.add(result);
+		}
+
+		tt.processBatch(documents, handlers);
+
+		assertEquals(expected, results);
+		assertEquals(1, tt.getRestartCount());
+		assertEquals(1, tt.getMetrics().getCallsCompleted());
+		assertEquals(11, tt.getMetrics().getDocumentsProcessed());
+	}
+
+	@Test
+	public
+	void testIndexed()
+	throws Exception
+	{
+		// NP and XY are not part of the tagset
+		File model = folder.newFile("indexed.par");
+		OutputStream os = new FileOutputStream(model);
+		try {
+			os.write(ModelWriter.write(ByteOrder.LITTLE_ENDIAN, TreeTaggerModel.VERSION_3_2,
+					Charset.forName("UTF-8"), asList("SENT", "NN", "CD"), asList("test"),
+					asList("test")));
+		}
+		finally {
+			os.close();
+		}
+		tt.setModel(new DefaultModel("indexed", model, "utf-8"));
+		assertEquals(asList("SENT", "NN", "CD"), tt.getTagset());
+
+		final List<String> actual = new ArrayList<String>();
+		tt.setHandler(new IndexedProbabilityHandler<String>()
+		{
+			public void token(String aToken, String aPos, String aLemma)
+			{
+				throw new IllegalStateException("Not expected to be called");
+			}
+
+			public void token(String aToken, int aTag, CharSequence aLemma)
+			{
+				actual.add(aToken + " " + aTag + " " + aLemma);
+			}
+
+			public void probability(int aTag, CharSequence aLemma, double aProbability)
+			{
+				actual.add(aTag + " " + aLemma + " " + aProbability);
+			}
+		});
+		tt.process(TOKENS);
+		assertEquals(asList("This -1 this", "is 1 is", "test 1 test", "42 2 42", ". 0 ."),
+				actual);
+
+		actual.clear();
+		tt.setProbabilityThreshold(0.1);
+		tt.process(asList("is"));
+		assertEquals(asList("is 1 is", "1 is 0.9", "-1 is 0.1"), actual);
+	}
+
+	@Test
+	public
+	void testReplacementToken()
+	throws Exception
+	{
+		tt.setReplacementToken("_");
+		List<String> input = asList("This", "is\n", "a", "\t", "test", ".");
+		List<String> expected = asList("This NP this", "is\n NN _", "a NN a", "\t NN _",
+				"test NN test", ". SENT .");
+
+		// The handler is called exactly once for each token, including the replaced ones
+		assertEquals(expected, run(input));
+
+		final List<String> actual = new ArrayList<String>();
+		tt.setHandler(new TokenHandler<String>()
+		{
+			public void token(String aToken, String aPos, String aLemma)
+			{
+				actual.add(aToken + " " + aPos + " " + aLemma);
+			}
+		});
+		tt.process(input.iterator());
+		assertEquals(expected, actual);
+
+		actual.clear();
+		tt.processBatch(asList(input, input), asList(tt.getHandler(), null));
+		assertEquals(expected, actual);
+
+		assertEquals(0, tt.getMetrics().getTokensDropped());
+		assertEquals(8, tt.getMetrics().getTokensReplaced());
+	}
+
+	@Test
+	public
+	void testTokensCheckedOnce()
+	throws Exception
+	{
+		final AtomicInteger calls = new AtomicInteger();
+		tt.setAdapter(new TokenAdapter<String>()
+		{
+			public String getText(String aObject)
+			{
+				calls.incrementAndGet();
+				return aObject;
+			}
+		});
+
+		// Problematic tokens at the start and end of the documents
+		List<String> first = asList("\t", "This", "is", "line\nbreak");
+		List<String> second = asList("\t", "test", ".", "\t");
+		final List<String> actual = new ArrayList<String>();
+		TokenHandler<String> handler = new TokenHandler<String>()
+		{
+			public void token(String aToken, String aPos, String aLemma)
+			{
+				actual.add(aToken + " " + aPos);
+			}
+		};
+
+		// The writer gets the text of every token, the reader only of the tokens it passes on
+		tt.processBatch(asList(first, second), asList(handler, handler));
+		assertEquals(asList("This NP", "is NN", "test NN", ". SENT"), actual);
+		assertEquals(8 + 4, calls.get());
+		assertEquals(4, tt.getMetrics().getTokensDropped());
+
+		actual.clear();
+		calls.set(0);
+		tt.setReplacementToken("_");
+		tt.processBatch(asList(first, second), asList(handler, handler));
+		assertEquals(asList("\t NN", "This NP", "is NN", "line\nbreak NN", "\t NN", "test NN",
+				". SENT", "\t NN"), actual);
+		assertEquals(8 + 4, calls.get());
+		assertEquals(4, tt.getMetrics().getTokensReplaced());
+	}
+
+	@Test
+	public
+	void testCustomTokenFilter()
+	throws Exception
+	{
+		final AtomicInteger calls = new AtomicInteger();
+		TreeTaggerWrapper<String> custom = new TreeTaggerWrapper<String>()
+		{
+			@Override
+			protected Collection<String> removeProblematicTokens(Collection<String> aTokens)
+			{
+				calls.incrementAndGet();
+				List<String> filtered = new ArrayList<String>();
+				for (String token : aTokens) {
+					if (!token.contains("\n") && !token.startsWith("-")) {
+						filtered.add(token);
+					}
+				}
+				return filtered;
+			}
+		};
+		try {
+			custom.setExecutableProvider(resolver);
+			custom.setModel(tt.getModel());
+			final List<String> actual = new ArrayList<String>();
+			custom.setHandler(new TokenHandler<String>()
+			{
+				public void token(String aToken, String aPos, String aLemma)
+				{
+					actual.add(aToken);
+				}
+			});
+
+			custom.process(asList("This", "-is", "line\nbreak", "."));
+			assertEquals(asList("This", "."), actual);
+			assertEquals(1, calls.get());
+
+			// With a replacement, nothing is removed and the filter is not used
+			actual.clear();
+			custom.setReplacementToken("_");
+			custom.process(asList("This", "-is", "line\nbreak", "."));
+			assertEquals(asList("This", "-is", "line\nbreak", "."), actual);
+			assertEquals(1, calls.get());
+		}
+		finally {
+			custom.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testMetrics()
+	throws Exception
+	{
+		List<String> tokens = new ArrayList<String>(TOKENS);
+		tokens.add("line\nbreak");
+		run(tokens);
+		tt.processBatch(asList(TOKENS, TOKENS), asList(new TokenHandler<String>()
+		{
+			public void token(String aToken, String aPos, String aLemma)
+			{
+				// Ignore
+			}
+		}, null));
+
+		TreeTaggerMetrics metrics = tt.getMetrics();
+		assertEquals(15, metrics.getTokensWritten());
+		assertEquals(15, metrics.getTokensRead());
+		assertEquals(1, metrics.getTokensDropped());
+		assertEquals(3, metrics.getDocumentsProcessed());
+		assertEquals(2, metrics.getCallsCompleted());
+		assertEquals(1, metrics.getProcessStartCount());
+		assertTrue(metrics.getBytesWritten() > 0);
+		assertTrue(metrics.getBytesRead() > 0);
+		long calls = 0;
+		for (long count : metrics.getLatencyHistogram()) {
+			calls += count;
+		}
+		assertEquals(2, calls);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("org.annolab.tt4j:type=TreeTaggerMetrics,name=test");
+		server.registerMBean(metrics, name);
+		try {
+			assertEquals(15L, server.getAttribute(name, "TokensRead"));
+		}
+		finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	@Test
+	public
+	void testWarmUp()
+	throws Exception
+	{
+		resolver.setStartupDelay(2000);
+		tt.warmUp();
+		assertEquals(1, tt.getRestartCount());
+
+		// The first request does not wait for the startup delay again
+		long start = System.nanoTime();
+		assertEquals(5, run(TOKENS).size());
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+		assertEquals(1, tt.getRestartCount());
+	}
+
+	@Test
+	public
+	void testEagerStart()
+	throws Exception
+	{
+		tt.setEagerStart(true);
+		setModel();
+		assertEquals(1, tt.getRestartCount());
+
+		tt.warmUpAsync().get(10, TimeUnit.SECONDS);
+		assertEquals(5, run(TOKENS).size());
+		assertEquals(1, tt.getRestartCount());
+	}
+
+	@Test
+	public
+	void testProcessCache()
+	throws Exception
+	{
+		String a = "src/test/resources/dummyModel.par:utf-8";
+		String b = "src/test/resources/./dummyModel.par:utf-8";
+		String c = "src/test/resources/../resources/dummyModel.par:utf-8";
+
+		tt.setProcessCacheSize(2);
+		for (int i = 0; i < 3; i++) {
+			tt.setModel(a);
+			assertEquals(5, run(TOKENS).size());
+			tt.setModel(b);
+			assertEquals(5, run(TOKENS).size());
+		}
+		assertEquals(2, tt.getRestartCount());
+
+		// Using a third model evicts the least recently used one
+		tt.setModel(c);
+		run(TOKENS);
+		tt.setModel(b);
+		run(TOKENS);
+		assertEquals(3, tt.getRestartCount());
+		tt.setModel(a);
+		run(TOKENS);
+		assertEquals(4, tt.getRestartCount());
+	}
+
+	@Test
+	public
+	void testProcessCacheMissingModel()
+	throws Exception
+	{
+		tt.setProcessCacheSize(2);
+		run(TOKENS);
+
+		// A model which cannot be resolved leaves the current model and its process in place
+		try {
+			tt.setModel("src/test/resources/missing.par:utf-8");
+			fail("Expected the model not to be found");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+		assertEquals("fake", tt.getModel().getName());
+		assertEquals(5, run(TOKENS).size());
+		assertEquals(1, tt.getRestartCount());
+
+		// A model without a process is not kept in the cache
+		tt.setModel("src/test/resources/dummyModel.par:utf-8");
+		tt.setModel("src/test/resources/./dummyModel.par:utf-8");
+		tt.setModel("fake");
+		assertEquals(5, run(TOKENS).size());
+		assertEquals(1, tt.getRestartCount());
+	}
+
+	@Test
+	public
+	void testSettingsCache()
+	throws Exception
+	{
+		run(TOKENS);
+
+		// Setting the same configuration again does not restart the process
+		tt.setArguments(tt.getArguments());
+		tt.setEpsilon(null);
+		tt.setProbabilityThreshold(-1.0);
+		tt.setHyphenHeuristics(false);
+		tt.setModel(tt.getModel().getName());
+		run(TOKENS);
+		assertEquals(1, tt.getRestartCount());
+
+		// Different configurations use different processes
+		tt.setProcessCacheSize(2);
+		for (int i = 0; i < 3; i++) {
+			tt.setProbabilityThreshold(0.1);
+			assertEquals(0.1, tt.getSettings().getProbabilityThreshold(), 0.0);
+			assertEquals(10, run(TOKENS).size());
+			tt.setProbabilityThreshold(null);
+			assertEquals(5, run(TOKENS).size());
+		}
+		assertEquals(2, tt.getRestartCount());
+	}
+
+	@Test
+	public
+	void testCrash()
+	throws Exception
+	{
+		resolver.setCrashAfter(3);
+		try {
+			run(TOKENS);
+			fail("Expected the process to crash");
+		}
+		catch (TreeTaggerException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("crashed after 3 tokens"));
+		}
+
+		// Only the process is lost after a failure, the model is kept
+		resolver.setCrashAfter(-1);
+		assertEquals(5, run(TOKENS).size());
+		assertEquals(2, tt.getRestartCount());
+	}
+
+	@Test
+	public
+	void testCrashKeepsCachedProcesses()
+	throws Exception
+	{
+		tt.setProcessCacheSize(2);
+		run(TOKENS);
+
+		// The process for the other settings crashes
+		resolver.setCrashAfter(1);
+		tt.setProbabilityThreshold(0.1);
+		try {
+			run(TOKENS);
+			fail("Expected the process to crash");
+		}
+		catch (TreeTaggerException e) {
+			// Expected
+		}
+		assertEquals(2, tt.getRestartCount());
+
+		// The cached process for the first settings is still running
+		resolver.setCrashAfter(-1);
+		tt.setProbabilityThreshold(null);
+		assertEquals(5, run(TOKENS).size());
+		assertEquals(2, tt.getRestartCount());
+		assertEquals("fake", tt.getModel().getName());
+
+		// A new process is started for the settings that failed
+		tt.setProbabilityThreshold(0.1);
+		assertEquals(10, run(TOKENS).size());
+		assertEquals(3, tt.getRestartCount());
+	}
+
+	@Test
+	public
+	void testClose()
+	throws Exception
+	{
+		tt.setShutdownTimeout(TimeUnit.SECONDS.toMillis(10));
+		run(TOKENS);
+
+		// The process terminates at the end of its input, it does not have to be killed
+		long start = System.nanoTime();
+		tt.close();
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(null, tt.getModel());
+	}
+
+	@Test
+	public
+	void testStall()
+	throws Exception
+	{
+		resolver.setStallAfter(2);
+		tt.setShutdownTimeout(100);
+		CompletableFuture<List<TaggedToken<String>>> future = tt.processAsync(TOKENS);
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail("Expected the process to stall");
+		}
+		catch (TimeoutException e) {
+			// Expected
+		}
+
+		// The process does not react to the end of its input, so it is killed
+		long start = System.nanoTime();
+		tt.close();
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("Expected pending request to fail");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TreeTaggerException);
+		}
+	}
+
+	@Test
+	public
+	void testStopOutsideLock()
+	throws Exception
+	{
+		resolver.setStallAfter(2);
+		tt.setShutdownTimeout(2000);
+		CompletableFuture<List<TaggedToken<String>>> future = tt.processAsync(TOKENS);
+		try {
+			future.get(500, TimeUnit.MILLISECONDS);
+			fail("Expected the process to stall");
+		}
+		catch (TimeoutException e) {
+			// Expected
+		}
+
+		// Changing the model stops the stalled process, which has to be killed
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try {
+					tt.setModel("src/test/resources/dummyModel.par:utf-8");
+				}
+				catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		thread.start();
+		Thread.sleep(300);
+
+		// The wrapper can be used meanwhile
+		long start = System.nanoTime();
+		assertEquals("src/test/resources/dummyModel.par:utf-8", tt.getSettings().getModelName());
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+		thread.join();
+	}
+
+	private
+	void setModel()
+	throws Exception
+	{
+		tt.setModel(new DefaultModel("fake", new File("src/test/resources/dummyModel.par"),
+				"utf-8"));
+	}
+
+	private
+	List<String> run(
+			final List<String> aTokens)
+	throws Exception
+	{
+		final List<String> output = new ArrayList<String>();
+		tt.setHandler(new ProbabilityHandler<String>()
+		{
+			private String token;
+
+			public void token(String aToken, String aPos, String aLemma)
+			{
+				token = aToken;
+				if (tt.getProbabilityThreshold() == null) {
+					output.add(aToken + " " + aPos + " " + aLemma);
+				}
+			}
+
+			public void probability(String aPos, String aLemma, double aProbability)
+			{
+				output.add(token + " " + aPos + " " + aLemma + " " + aProbability);
+			}
+		});
+		tt.process(aTokens);
+		return output;
+	}
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public
+class LexiconIndexTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public
+	void testIndexOf()
+	{
+		List<String> tokens = new ArrayList<String>();
+		for (int i = 0; i < 100000; i++) {
+			tokens.add("token" + i);
+		}
+		LexiconIndex index = LexiconIndex.build(tokens, 4);
+
+		assertEquals(tokens.size(), index.size());
+		for (int i = 0; i < tokens.size(); i++) {
+			assertEquals(i, index.indexOf(tokens.get(i)));
+		}
+		assertEquals(17, index.indexOf(new StringBuilder("token17")));
+		for (int i = 0; i < 100000; i++) {
+			assertFalse(index.contains("other" + i));
+		}
+		assertFalse(index.contains(""));
+	}
+
+	@Test
+	public
+	void testDuplicatesAndEmpty()
+	{
+		LexiconIndex index = LexiconIndex.build(Arrays.asList("a", "b", "a", "Gr\u00f6\u00dfe"),
+				LexiconIndex.DEFAULT_VERIFICATION_BYTES);
+
+		assertEquals(3, index.size());
+		assertEquals(0, index.indexOf("a"));
+		assertEquals(1, index.indexOf("b"));
+		assertEquals(3, index.indexOf("Gr\u00f6\u00dfe"));
+
+		index = LexiconIndex.build(Collections.<String>emptyList(), 0);
+		assertEquals(0, index.size());
+		assertEquals(-1, index.indexOf("a"));
+	}
+
+	@Test
+	public
+	void testModel()
+	throws Exception
+	{
+		Charset utf8 = Charset.forName("UTF-8");
+		List<String> tokens = Arrays.asList("Haus", "geht", "Gr\u00f6\u00dfe", ".");
+		TreeTaggerModelReader reader = new TreeTaggerModelReader();
+		reader.setCompactDictionary(true);
+		TreeTaggerModel model = reader.read(new ByteArrayInputStream(ModelWriter.write(
+				ByteOrder.LITTLE_ENDIAN, TreeTaggerModel.VERSION_3_2, utf8, Arrays.asList("NN"),
+				Arrays.asList("haus"), tokens)));
+
+		LexiconIndex index = LexiconIndex.build(model);
+		File file = folder.newFile("model.par.lexicon");
+		index.save(file);
+		LexiconIndex loaded = LexiconIndex.load(file);
+
+		assertEquals(index.size(), loaded.size());
+		assertEquals(index.getVerificationBytes(), loaded.getVerificationBytes());
+		for (int i = 0; i < tokens.size(); i++) {
+			assertEquals(i, loaded.indexOf(tokens.get(i)));
+		}
+		assertTrue(loaded.contains("Haus"));
+		assertFalse(loaded.contains("Maus"));
+
+		// A truncated index is rejected
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 1);
+		}
+		finally {
+			raf.close();
+		}
+		try {
+			LexiconIndex.load(file);
+			fail("Expected the index to be rejected");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt lexicon index"));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Writes synthetic TreeTagger model files in the layout understood by
+ * {@link TreeTaggerModelReader}. The opaque blocks are filled with arbitrary data of varying size,
+ * so a reader has to skip them correctly.
+ *
+ * @author Richard Eckart de Castilho
+ */
+public final
+class ModelWriter
+{
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(buffer);
+	private final ByteOrder byteOrder;
+	private final Charset charset;
+
+	private
+	ModelWriter(
+			final ByteOrder aByteOrder,
+			final Charset aCharset)
+	{
+		byteOrder = aByteOrder;
+		charset = aCharset;
+	}
+
+	/**
+	 * Write a model.
+	 *
+	 * @param aByteOrder the byte order.
+	 * @param aVersion {@link TreeTaggerModel#VERSION_3_1} or {@link TreeTaggerModel#VERSION_3_2}.
+	 * @param aCharset the encoding of the strings.
+	 * @param aTags the tags.
+	 * @param aLemmas the lemma dictionary.
+	 * @param aTokens the token dictionary.
+	 * @return the model file.
+	 */
+	public static
+	byte[] write(
+			final ByteOrder aByteOrder,
+			final int aVersion,
+			final Charset aCharset,
+			final List<String> aTags,
+			final List<String> aLemmas,
+			final List<String> aTokens)
+	{
+		try {
+			ModelWriter writer = new ModelWriter(aByteOrder, aCharset);
+			writer.model(aVersion, aTags, aLemmas, aTokens);
+			return writer.buffer.toByteArray();
+		}
+		catch (final IOException e) {
+			// Cannot happen when writing to memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private
+	void model(
+			final int aVersion,
+			final List<String> aTags,
+			final List<String> aLemmas,
+			final List<String> aTokens)
+	throws IOException
+	{
+		writeInt(aVersion);
+		writeInt(0);
+		if (aVersion == TreeTaggerModel.VERSION_3_2) {
+			writeInt(0);
+		}
+		writeInt(aTags.size());
+		for (String tag : aTags) {
+			writeString(tag);
+		}
+
+		writeInt(aLemmas.size());
+		for (String lemma : aLemmas) {
+			writeString(lemma);
+		}
+
+		writeInt(aTokens.size());
+		writeInt(0xFFFFFFFE);
+		out.writeByte(0);
+
+		int c1 = 3;
+		writeInt(c1);
+		for (int i = 0; i < c1 * 3; i++) {
+			writeInt(i);
+		}
+		writeInt(0);
+		out.writeByte(0);
+
+		int c2 = 2;
+		writeInt(c2);
+		writeInt(0);
+		for (int i = 0; i < c2 * 3; i++) {
+			writeInt(i);
+		}
+
+		for (int t = 0; t < aTokens.size(); t++) {
+			writeString(aTokens.get(t));
+			int blockSize = 1 + t % 3;
+			writeInt(blockSize);
+			writeInt(0);
+			for (int i = 0; i < blockSize; i++) {
+				writeInt(t % Math.max(1, aTags.size()));
+				writeInt(t % Math.max(1, aLemmas.size()));
+				writeInt(0);
+			}
+		}
+		out.flush();
+	}
+
+	private
+	void writeInt(
+			final int aValue)
+	throws IOException
+	{
+		out.writeInt(byteOrder == ByteOrder.BIG_ENDIAN ? aValue : Integer.reverseBytes(aValue));
+	}
+
+	private
+	void writeString(
+			final String aString)
+	throws IOException
+	{
+		out.write(aString.getBytes(charset));
+		out.writeByte(0);
+	}
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public
+class RecordReaderTest
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public
+	void testRecords()
+	throws Exception
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append("  Größe").append(i).append("\tNN\tgröße \r\n");
+		}
+		sb.append("last\tSENT\tlast");
+
+		ByteRingBuffer history = new ByteRingBuffer(16);
+		RecordReader reader = new RecordReader(new ByteArrayInputStream(
+				sb.toString().getBytes(UTF8)), UTF8, new TagTable(UTF8), history);
+
+		String firstTag = null;
+		for (int i = 0; i < 5000; i++) {
+			assertTrue(reader.next());
+			int tab = reader.indexOf((byte) '\t', reader.start(), reader.end());
+			assertEquals("Größe" + i, reader.decode(reader.start(), tab).toString());
+			assertEquals("Größe" + i + "\tNN\tgröße", reader.getRecord());
+
+			String tag = reader.getTag(tab + 1, tab + 3);
+			if (firstTag == null) {
+				firstTag = tag;
+			}
+			assertSame(firstTag, tag);
+		}
+
+		assertTrue(reader.next());
+		assertEquals("last\tSENT\tlast", reader.getRecord());
+		assertFalse(reader.next());
+
+		assertEquals("\r\nlast\tSENT\tlast", history.toString(UTF8));
+		assertEquals(1, reader.getTagTable().size());
+	}
+
+	@Test
+	public
+	void testParseDouble()
+	throws Exception
+	{
+		String[] numbers = { "1.000000", "0.999661", "0.000001", "-0.5", "+2", "42.", "0",
+				"1.7976931348623157E308", "123456789012345678", "0.1234567890123456789", "1e-5" };
+
+		RecordReader reader = new RecordReader(new ByteArrayInputStream(
+				Util.join(numbers, "\n").getBytes(UTF8)), UTF8, new TagTable(UTF8), null);
+		for (String number : numbers) {
+			assertTrue(reader.next());
+			assertEquals(number, Double.parseDouble(number),
+					reader.parseDouble(reader.start(), reader.end()), 0.0);
+		}
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public
+	void testParseDoubleInvalid()
+	throws Exception
+	{
+		RecordReader reader = new RecordReader(new ByteArrayInputStream(".".getBytes(UTF8)), UTF8,
+				new TagTable(UTF8), null);
+		assertTrue(reader.next());
+		reader.parseDouble(reader.start(), reader.end());
+	}
+
+	@Test
+	public
+	void testTagTable()
+	{
+		TagTable tags = new TagTable(UTF8);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, tags.add("TAG" + i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			byte[] key = ("xTAG" + i + "x").getBytes(UTF8);
+			int index = tags.lookup(key, 1, key.length - 1);
+			assertEquals(i, index);
+			assertEquals("TAG" + i, tags.getTag(index));
+		}
+		assertEquals(1000, tags.size());
+	}
+}
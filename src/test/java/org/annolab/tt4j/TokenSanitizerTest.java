@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public
+class TokenSanitizerTest
+{
+	private static final String NON_BMP = new String(new int[] { 0x1F600 }, 0, 1);
+
+	@Test
+	public
+	void testIllegalTokens()
+	{
+		TokenSanitizer s = new TokenSanitizer("UTF-8", 100);
+		assertTrue(s.isAcceptable("token"));
+		assertTrue(s.isAcceptable("Gr\u00f6\u00dfe"));
+		assertFalse(s.isAcceptable(null));
+		assertFalse(s.isAcceptable(""));
+		assertFalse(s.isAcceptable("   "));
+		assertFalse(s.isAcceptable("a\tb"));
+		assertFalse(s.isAcceptable("a\nb"));
+	}
+
+	@Test
+	public
+	void testSupplementaryCharacters()
+	{
+		assertTrue(new TokenSanitizer("UTF-8", 100).isAcceptable("a" + NON_BMP));
+		assertFalse(new TokenSanitizer("ISO-8859-1", 100).isAcceptable("a" + NON_BMP));
+	}
+
+	@Test
+	public
+	void testUnmappableCharacters()
+	{
+		// Sent and replaced by the encoder instead of being dropped
+		assertTrue(new TokenSanitizer("ISO-8859-1", 100).isAcceptable("5\u20ac"));
+	}
+
+	@Test
+	public
+	void testMaximumTokenLength()
+	{
+		TokenSanitizer utf8 = new TokenSanitizer("UTF-8", 10);
+		assertTrue(utf8.isAcceptable("123456789"));
+		assertFalse(utf8.isAcceptable("1234567890"));
+		// Five characters, but ten bytes in UTF-8
+		assertFalse(utf8.isAcceptable("\u00e4\u00e4\u00e4\u00e4\u00e4"));
+		assertTrue(new TokenSanitizer("ISO-8859-1", 10).isAcceptable(
+				"\u00e4\u00e4\u00e4\u00e4\u00e4\u00e4\u00e4\u00e4a"));
+		assertFalse(new TokenSanitizer("UTF-16BE", 10).isAcceptable("12345"));
+		assertTrue(new TokenSanitizer("UTF-16BE", 10).isAcceptable("1234"));
+	}
+}
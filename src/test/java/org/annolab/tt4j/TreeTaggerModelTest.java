@@ -18,23 +18,245 @@
  ******************************************************************************/
 package org.annolab.tt4j;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestName;
 
 public class TreeTaggerModelTest
 {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final List<String> TAGS = asList("NN", "VVFIN", "SENT");
+    private static final List<String> LEMMAS = asList("haus", "gehen", "gro\u00df", ".");
+    private static final List<String> TOKENS = asList("Haus", "geht", "Gr\u00f6\u00dfe", ".",
+            "H\u00e4user");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadMapped() throws Exception
+    {
+        for (ByteOrder order : asList(ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN)) {
+            for (int version : asList(TreeTaggerModel.VERSION_3_1, TreeTaggerModel.VERSION_3_2)) {
+                byte[] data = ModelWriter.write(order, version, UTF_8, TAGS, LEMMAS, TOKENS);
+                File file = write(data);
+                TreeTaggerModel streamed = TreeTaggerModelUtil.readModel(
+                        new ByteArrayInputStream(data), "UTF-8");
+                TreeTaggerModel mapped = TreeTaggerModelUtil.mapModel(file, "UTF-8");
+
+                assertEquals(version, mapped.getVersion());
+                assertEquals(order, mapped.getByteOrder());
+                assertEquals(file.toString(), mapped.getSource());
+                assertEquals(TAGS, mapped.getTags());
+                assertEquals(streamed.getLemmas(), mapped.getLemmas());
+                assertEquals(streamed.getTokens(), mapped.getTokens());
+                assertEquals(TOKENS, mapped.getTokens());
+            }
+        }
+    }
+
+    @Test
+    public void testReadStream() throws Exception
+    {
+        // A token longer than the read buffer
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 100000) {
+            sb.append("Gr\u00f6\u00dfe");
+        }
+        List<String> tokens = new ArrayList<String>(TOKENS);
+        tokens.add(2, sb.toString());
+        byte[] data = ModelWriter.write(ByteOrder.LITTLE_ENDIAN, TreeTaggerModel.VERSION_3_2,
+                UTF_8, TAGS, LEMMAS, tokens);
+
+        // The stream delivers only a few bytes per call
+        TreeTaggerModelReader reader = new TreeTaggerModelReader();
+        TreeTaggerModel model = reader.read(new FilterInputStream(new ByteArrayInputStream(data))
+        {
+            @Override
+            public int read(byte[] aBuffer, int aOffset, int aLength) throws IOException
+            {
+                return super.read(aBuffer, aOffset, Math.min(aLength, 7));
+            }
+        });
+        assertEquals(TAGS, model.getTags());
+        assertEquals(LEMMAS, model.getLemmas());
+        assertEquals(tokens, model.getTokens());
+
+        // The reader can be re-used, here for a compressed model
+        File file = new File(folder.getRoot(), "model.par.gz");
+        OutputStream os = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            os.write(ModelWriter.write(ByteOrder.BIG_ENDIAN, TreeTaggerModel.VERSION_3_1, UTF_8,
+                    TAGS, LEMMAS, TOKENS));
+        }
+        finally {
+            os.close();
+        }
+        InputStream is = new GZIPInputStream(new FileInputStream(file));
+        try {
+            model = reader.read(is);
+        }
+        finally {
+            is.close();
+        }
+        assertEquals(TreeTaggerModel.VERSION_3_1, model.getVersion());
+        assertEquals(TOKENS, model.getTokens());
+        assertEquals(TOKENS, TreeTaggerModelUtil.readModel(file.toURI().toURL(), "UTF-8")
+                .getTokens());
+    }
+
+    @Test
+    public void testReadCompact() throws Exception
+    {
+        for (String encoding : asList("UTF-8", "ISO-8859-1")) {
+            Charset charset = Charset.forName(encoding);
+            byte[] data = ModelWriter.write(ByteOrder.LITTLE_ENDIAN, TreeTaggerModel.VERSION_3_2,
+                    charset, TAGS, LEMMAS, TOKENS);
+            TreeTaggerModelReader reader = new TreeTaggerModelReader();
+            reader.setEncoding(encoding);
+            reader.setCompactDictionary(true);
+            TreeTaggerModel model = reader.read(new ByteArrayInputStream(data));
+
+            assertEquals(TAGS, model.getTags());
+            assertEquals(LEMMAS, model.getLemmas());
+            assertEquals(TOKENS, model.getTokens());
+            StringTable tokens = (StringTable) model.getTokens();
+            for (int i = 0; i < TOKENS.size(); i++) {
+                assertEquals(TOKENS.get(i), tokens.getSequence(i).toString());
+            }
+            assertEquals("aus", tokens.getSequence(0).subSequence(1, 4).toString());
+        }
+
+        StringTable table = StringTable.copyOf(TOKENS, UTF_8);
+        assertEquals(TOKENS, table);
+        assertEquals(TOKENS.hashCode(), table.hashCode());
+        assertEquals(23, table.getByteSize());
+    }
+
+    @Test
+    public void testCache() throws Exception
+    {
+        File file = write(ModelWriter.write(ByteOrder.LITTLE_ENDIAN, TreeTaggerModel.VERSION_3_2,
+                UTF_8, TAGS, LEMMAS, TOKENS));
+        TreeTaggerModelCache cache = new TreeTaggerModelCache(new File(folder.getRoot(), "cache"));
+        File sidecar = cache.getSidecar(file);
+
+        TreeTaggerModel model = cache.readModel(file, "UTF-8");
+        assertEquals(TAGS, model.getTags());
+        assertEquals(TOKENS, model.getTokens());
+        assertTrue(sidecar.isFile());
+
+        // Loaded from the sidecar, which is not written again
+        sidecar.setLastModified(0);
+        model = cache.readModel(file, "UTF-8");
+        assertEquals(0, sidecar.lastModified());
+        assertEquals(file.toString(), model.getSource());
+        assertEquals(TreeTaggerModel.VERSION_3_2, model.getVersion());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, model.getByteOrder());
+        assertEquals(TAGS, model.getTags());
+        assertEquals(LEMMAS, model.getLemmas());
+        assertEquals(TOKENS, model.getTokens());
+        assertEquals(TAGS, cache.getTagset(file, "UTF-8"));
+        assertEquals(0, sidecar.lastModified());
+
+        // Same size and modification time, but different content
+        long lastModified = file.lastModified();
+        List<String> tokens = new ArrayList<String>(TOKENS);
+        tokens.set(0, "Maus");
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(ModelWriter.write(ByteOrder.LITTLE_ENDIAN, TreeTaggerModel.VERSION_3_2,
+                    UTF_8, TAGS, LEMMAS, tokens));
+        }
+        finally {
+            os.close();
+        }
+        file.setLastModified(lastModified);
+        assertEquals(tokens, cache.readModel(file, "UTF-8").getTokens());
+        assertTrue(sidecar.lastModified() != 0);
+
+        // Same content, but a different modification time
+        sidecar.setLastModified(0);
+        file.setLastModified(lastModified - 2000);
+        assertEquals(tokens, cache.readModel(file, "UTF-8").getTokens());
+        assertTrue(sidecar.lastModified() != 0);
+
+        // Changing the encoding invalidates the sidecar
+        assertEquals(TAGS, cache.getTagset(file, "ISO-8859-1"));
+        assertEquals(tokens, cache.readModel(file, "UTF-8").getTokens());
+
+        // A truncated sidecar is replaced
+        RandomAccessFile raf = new RandomAccessFile(sidecar, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        }
+        finally {
+            raf.close();
+        }
+        assertEquals(tokens, cache.readModel(file, "UTF-8").getTokens());
+        assertEquals(tokens, cache.readModel(file, "UTF-8").getTokens());
+
+        // Sidecar next to the model
+        cache = new TreeTaggerModelCache();
+        assertEquals(TAGS, cache.getTagset(file, "UTF-8"));
+        assertTrue(new File(file.getPath() + TreeTaggerModelCache.EXTENSION).isFile());
+    }
+
+    @Test
+    public void testReadMappedSegments() throws Exception
+    {
+        // Segments of 8 bytes, so most strings and some integers cross segment boundaries
+        File file = write(ModelWriter.write(ByteOrder.LITTLE_ENDIAN, TreeTaggerModel.VERSION_3_2,
+                UTF_8, TAGS, LEMMAS, TOKENS));
+        TreeTaggerModel model = new TreeTaggerModelReader().read(new MappedFile(file, 3));
+
+        assertEquals(TAGS, model.getTags());
+        assertEquals(LEMMAS, model.getLemmas());
+        assertEquals(TOKENS, model.getTokens());
+        assertEquals("H\u00e4user", model.getTokens().get(4));
+    }
+
+    @Test
+    public void testReadMappedTagsOnly() throws Exception
+    {
+        File file = write(ModelWriter.write(ByteOrder.BIG_ENDIAN, TreeTaggerModel.VERSION_3_2,
+                UTF_8, TAGS, LEMMAS, TOKENS));
+        TreeTaggerModelReader reader = new TreeTaggerModelReader();
+        reader.setReadDictionary(false);
+        TreeTaggerModel model = reader.read(file);
+
+        assertEquals(TAGS, model.getTags());
+        assertEquals(null, model.getLemmas());
+        assertEquals(null, model.getTokens());
+    }
+
     @Test
     public void testReadTaggerModelLittleEndianEn() throws Exception
     {
@@ -279,6 +501,19 @@ public class TreeTaggerModelTest
         return chunkTags;
     }
     
+    private File write(byte[] aData) throws IOException
+    {
+        File file = folder.newFile();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(aData);
+        }
+        finally {
+            os.close();
+        }
+        return file;
+    }
+
     @Rule
     public TestName name = new TestName();
 
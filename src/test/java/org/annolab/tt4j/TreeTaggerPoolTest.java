@@ -0,0 +1,424 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public
+class TreeTaggerPoolTest
+{
+	private static final List<String> TOKENS = asList("This", "is", "a", "test", ".");
+	private static final TreeTaggerSettings FAKE = new TreeTaggerSettings(
+			"src/test/resources/dummyModel.par:utf-8");
+
+	@Test
+	public
+	void testSettingsEquality()
+	{
+		TreeTaggerSettings a = new TreeTaggerSettings("english.par:iso8859-1");
+		TreeTaggerSettings b = new TreeTaggerSettings("english.par:iso8859-1", null, null, -1.0,
+				false);
+		TreeTaggerSettings c = new TreeTaggerSettings("english.par:iso8859-1", null, null, 0.1,
+				false);
+
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertFalse(a.equals(c));
+		assertFalse(a.equals(new TreeTaggerSettings("german.par:iso8859-1")));
+	}
+
+	@Test
+	public
+	void testSettingsAreImmutable()
+	{
+		String[] args = { TreeTaggerWrapper.ARG_TOKEN };
+		TreeTaggerSettings s = new TreeTaggerSettings("english.par", args, null, null, false);
+		args[0] = TreeTaggerWrapper.ARG_LEMMA;
+		s.getArguments()[0] = TreeTaggerWrapper.ARG_LEMMA;
+
+		assertEquals(asList(TreeTaggerWrapper.ARG_TOKEN), asList(s.getArguments()));
+	}
+
+	@Test
+	public
+	void testReapingKeepsSharedResolver()
+	throws Exception
+	{
+		Assume.assumeTrue(FakeTreeTaggerResolver.isSupported());
+
+		final FakeTreeTaggerResolver fake = new FakeTreeTaggerResolver();
+		final AtomicInteger destroyed = new AtomicInteger();
+		final List<TreeTaggerWrapper<String>> wrappers = new ArrayList<TreeTaggerWrapper<String>>();
+		TreeTaggerPool<String> pool = newPool(wrappers);
+		pool.setExecutableProvider(new ExecutableResolver()
+		{
+			public void setPlatformDetector(PlatformDetector aPlatform)
+			{
+				// Not needed
+			}
+
+			public String getExecutable() throws IOException
+			{
+				return fake.getExecutable();
+			}
+
+			public void destroy()
+			{
+				destroyed.incrementAndGet();
+				fake.destroy();
+			}
+		});
+
+		try {
+			// A failing handler makes the pool dispose the wrapper
+			try {
+				pool.process(FAKE, TOKENS, new TokenHandler<String>()
+				{
+					public void token(String aToken, String aPos, String aLemma)
+					{
+						throw new IllegalStateException("Handler failed");
+					}
+				});
+				fail("Expected the handler to fail");
+			}
+			catch (TreeTaggerException e) {
+				// Expected
+			}
+			assertEquals(0, pool.getIdleCount());
+
+			// Clean up as if the disposed wrapper had been garbage collected
+			wrappers.get(0).reap();
+			assertEquals(0, destroyed.get());
+
+			assertEquals(5, process(pool, FAKE).size());
+			assertEquals(2, wrappers.size());
+		}
+		finally {
+			pool.destroy();
+		}
+		assertEquals(1, destroyed.get());
+	}
+
+	@Test
+	public
+	void testContention()
+	throws Exception
+	{
+		Assume.assumeTrue(FakeTreeTaggerResolver.isSupported());
+
+		final FakeTreeTaggerResolver fake = new FakeTreeTaggerResolver();
+		fake.setLatency(5);
+		final List<TreeTaggerWrapper<String>> wrappers = new ArrayList<TreeTaggerWrapper<String>>();
+		final TreeTaggerPool<String> pool = newPool(wrappers);
+		pool.setExecutableProvider(fake);
+		pool.setMaxProcesses(2);
+
+		ExecutorService executor = Executors.newFixedThreadPool(6);
+		try {
+			List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+			for (int i = 0; i < 24; i++) {
+				results.add(executor.submit(new Callable<List<String>>()
+				{
+					public List<String> call() throws Exception
+					{
+						return process(pool, FAKE);
+					}
+				}));
+			}
+
+			for (Future<List<String>> result : results) {
+				assertEquals(asList("This NP", "is NN", "a NN", "test NN", ". SENT"),
+						result.get());
+			}
+
+			assertEquals(24, pool.getLeaseCount());
+			assertEquals(0, pool.getActiveCount());
+			assertEquals(0, pool.getWaitingCount());
+			// Never more wrappers than permits, and all of them are re-used
+			assertTrue(wrappers.size() <= 2);
+			assertEquals(wrappers.size(), pool.getIdleCount());
+		}
+		finally {
+			executor.shutdown();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testLeaseTimeout()
+	throws Exception
+	{
+		Assume.assumeTrue(FakeTreeTaggerResolver.isSupported());
+
+		final TreeTaggerPool<String> pool = new TreeTaggerPool<String>();
+		pool.setExecutableProvider(new FakeTreeTaggerResolver());
+		pool.setMaxProcesses(1);
+		pool.setLeaseTimeout(100);
+
+		final CountDownLatch leased = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> holder = executor.submit(new Callable<Void>()
+			{
+				public Void call() throws Exception
+				{
+					pool.process(FAKE, TOKENS, blockingHandler(leased, done));
+					return null;
+				}
+			});
+			assertTrue(leased.await(10, TimeUnit.SECONDS));
+
+			long start = System.currentTimeMillis();
+			try {
+				process(pool, FAKE);
+				fail("Expected the lease to time out");
+			}
+			catch (TreeTaggerException e) {
+				assertTrue(e.getMessage().contains("100ms"));
+			}
+			assertTrue(System.currentTimeMillis() - start >= 100);
+			assertEquals(1, pool.getSaturationCount());
+			assertEquals(0, pool.getWaitingCount());
+
+			// The permit was not consumed by the timed out caller
+			done.countDown();
+			holder.get();
+			assertEquals(5, process(pool, FAKE).size());
+			assertEquals(0, pool.getActiveCount());
+		}
+		finally {
+			done.countDown();
+			executor.shutdown();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testFailedWrapperIsReplaced()
+	throws Exception
+	{
+		Assume.assumeTrue(FakeTreeTaggerResolver.isSupported());
+
+		final FakeTreeTaggerResolver fake = new FakeTreeTaggerResolver();
+		final List<TreeTaggerWrapper<String>> wrappers = new ArrayList<TreeTaggerWrapper<String>>();
+		TreeTaggerPool<String> pool = newPool(wrappers);
+		pool.setExecutableProvider(fake);
+		pool.setMaxProcesses(1);
+
+		try {
+			fake.setCrashAfter(3);
+			try {
+				process(pool, FAKE);
+				fail("Expected the process to fail");
+			}
+			catch (TreeTaggerException e) {
+				// Expected
+			}
+			assertEquals(0, pool.getIdleCount());
+			assertEquals(0, pool.getActiveCount());
+
+			// The single permit has been returned and the next lease gets a fresh wrapper
+			fake.setCrashAfter(-1);
+			assertEquals(asList("This NP", "is NN", "a NN", "test NN", ". SENT"),
+					process(pool, FAKE));
+			assertEquals(2, wrappers.size());
+			assertEquals(1, pool.getIdleCount());
+		}
+		finally {
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testDestroyWhileLeased()
+	throws Exception
+	{
+		Assume.assumeTrue(FakeTreeTaggerResolver.isSupported());
+
+		final TreeTaggerPool<String> pool = new TreeTaggerPool<String>();
+		pool.setExecutableProvider(new FakeTreeTaggerResolver());
+		pool.setMaxProcesses(2);
+
+		final CountDownLatch leased = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// One idle and one leased wrapper
+			assertEquals(5, process(pool, FAKE).size());
+			Future<?> holder = executor.submit(new Callable<Void>()
+			{
+				public Void call() throws Exception
+				{
+					pool.process(FAKE, TOKENS, blockingHandler(leased, done));
+					return null;
+				}
+			});
+			assertTrue(leased.await(10, TimeUnit.SECONDS));
+			assertEquals(1, pool.getActiveCount());
+
+			pool.destroy();
+			assertEquals(0, pool.getIdleCount());
+			try {
+				process(pool, FAKE);
+				fail("Expected the pool to refuse new leases");
+			}
+			catch (TreeTaggerException e) {
+				// Expected
+			}
+
+			// The leased wrapper completes its job and is disposed when it is returned
+			done.countDown();
+			holder.get();
+			assertEquals(0, pool.getActiveCount());
+			assertEquals(0, pool.getIdleCount());
+		}
+		finally {
+			done.countDown();
+			executor.shutdown();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testConcurrentProcessing()
+	throws Exception
+	{
+		Assume.assumeTrue(System.getenv("TREETAGGER_HOME") != null);
+
+		final TreeTaggerPool<String> pool = new TreeTaggerPool<String>();
+		pool.setMaxProcesses(2);
+		final TreeTaggerSettings english = new TreeTaggerSettings(
+				"english-par-linux-3.2.bin:iso8859-1");
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+			for (int i = 0; i < 16; i++) {
+				results.add(executor.submit(new Callable<List<String>>()
+				{
+					public List<String> call() throws Exception
+					{
+						final List<String> output = new ArrayList<String>();
+						pool.process(english, asList("This", "is", "a", "test", "."),
+								new TokenHandler<String>()
+								{
+									public void token(String aToken, String aPos, String aLemma)
+									{
+										output.add(aToken + " " + aPos);
+									}
+								});
+						return output;
+					}
+				}));
+			}
+
+			for (Future<List<String>> result : results) {
+				assertEquals(asList("This DT", "is VBZ", "a DT", "test NN", ". SENT"),
+						result.get());
+			}
+
+			assertEquals(16, pool.getLeaseCount());
+			assertEquals(0, pool.getActiveCount());
+			assertTrue(pool.getIdleCount() <= 2);
+		}
+		finally {
+			executor.shutdown();
+			pool.destroy();
+		}
+	}
+
+	private static
+	List<String> process(
+			final TreeTaggerPool<String> aPool,
+			final TreeTaggerSettings aSettings)
+	throws Exception
+	{
+		final List<String> output = new ArrayList<String>();
+		aPool.process(aSettings, TOKENS, new TokenHandler<String>()
+		{
+			public void token(String aToken, String aPos, String aLemma)
+			{
+				output.add(aToken + " " + aPos);
+			}
+		});
+		return output;
+	}
+
+	private static
+	TreeTaggerPool<String> newPool(
+			final List<TreeTaggerWrapper<String>> aWrappers)
+	{
+		return new TreeTaggerPool<String>()
+		{
+			@Override
+			protected TreeTaggerWrapper<String> createWrapper(TreeTaggerSettings aSettings)
+				throws IOException
+			{
+				TreeTaggerWrapper<String> wrapper = super.createWrapper(aSettings);
+				synchronized (aWrappers) {
+					aWrappers.add(wrapper);
+				}
+				return wrapper;
+			}
+		};
+	}
+
+	private static
+	TokenHandler<String> blockingHandler(
+			final CountDownLatch aLeased,
+			final CountDownLatch aDone)
+	{
+		return new TokenHandler<String>()
+		{
+			public void token(String aToken, String aPos, String aLemma)
+			{
+				aLeased.countDown();
+				try {
+					aDone.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+	}
+}
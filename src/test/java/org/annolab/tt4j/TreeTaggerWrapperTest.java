@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Assume;
 import org.junit.Test;
@@ -51,6 +52,197 @@ public class TreeTaggerWrapperTest
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	public
+	void testEnglishAsync()
+	throws Exception
+	{
+		Assume.assumeTrue(System.getenv("TREETAGGER_HOME") != null);
+
+		TreeTaggerWrapper<String> tt = new TreeTaggerWrapper<String>();
+		try {
+			tt.setModel("english-par-linux-3.2.bin:iso8859-1");
+
+			// Pipeline several requests into the same process
+			List<CompletableFuture<List<TaggedToken<String>>>> futures =
+					new ArrayList<CompletableFuture<List<TaggedToken<String>>>>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(tt.processAsync(asList("This", "is", "a", "test", ".")));
+			}
+
+			for (CompletableFuture<List<TaggedToken<String>>> future : futures) {
+				List<String> actual = new ArrayList<String>();
+				for (TaggedToken<String> token : future.get()) {
+					actual.add(token.toString());
+				}
+
+				assertEquals(asList(
+						"This DT this",
+						"is VBZ be",
+						"a DT a",
+						"test NN test",
+						". SENT ."), actual);
+			}
+			assertEquals(1, tt.getRestartCount());
+		}
+		finally {
+			tt.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testEnglishBatch()
+	throws Exception
+	{
+		Assume.assumeTrue(System.getenv("TREETAGGER_HOME") != null);
+
+		TreeTaggerWrapper<String> tt = new TreeTaggerWrapper<String>();
+		try {
+			tt.setModel("english-par-linux-3.2.bin:iso8859-1");
+
+			List<List<String>> documents = new ArrayList<List<String>>();
+			List<TokenHandler<String>> handlers = new ArrayList<TokenHandler<String>>();
+			final List<List<String>> results = new ArrayList<List<String>>();
+			for (int i = 0; i < 10; i++) {
+				final List<String> result = new ArrayList<String>();
+				documents.add(asList("This", "is", "a", "test", "."));
+				handlers.add(new TokenHandler<String>()
+				{
+					public void token(String aToken, String aPos, String aLemma)
+					{
+						result.add(aToken + " " + aPos + " " + aLemma);
+					}
+				});
+				results.add(result);
+			}
+
+			tt.processBatch(documents, handlers);
+
+			for (List<String> result : results) {
+				assertEquals(asList(
+						"This DT this",
+						"is VBZ be",
+						"a DT a",
+						"test NN test",
+						". SENT ."), result);
+			}
+			assertEquals(1, tt.getRestartCount());
+		}
+		finally {
+			tt.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testEnglishStream()
+	throws Exception
+	{
+		Assume.assumeTrue(System.getenv("TREETAGGER_HOME") != null);
+
+		TreeTaggerWrapper<String> tt = new TreeTaggerWrapper<String>();
+		try {
+			tt.setModel("english-par-linux-3.2.bin:iso8859-1");
+			// Use a window smaller than the input to force intermediate flushes
+			tt.setStreamWindowSize(7);
+
+			List<String> input = new ArrayList<String>();
+			List<String> expected = new ArrayList<String>();
+			for (int i = 0; i < 20; i++) {
+				input.addAll(asList("This", "is", "a", "test", "."));
+				expected.addAll(asList("This DT", "is VBZ", "a DT", "test NN", ". SENT"));
+			}
+
+			final List<String> actual = new ArrayList<String>();
+			tt.setHandler(new TokenHandler<String>()
+			{
+				public void token(String aToken, String aPos, String aLemma)
+				{
+					actual.add(aToken + " " + aPos);
+				}
+			});
+			tt.process(input.iterator());
+
+			assertEquals(expected, actual);
+		}
+		finally {
+			tt.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testEnglishIndexed()
+	throws Exception
+	{
+		Assume.assumeTrue(System.getenv("TREETAGGER_HOME") != null);
+
+		TreeTaggerWrapper<String> tt = new TreeTaggerWrapper<String>();
+		try {
+			tt.setModel("english-par-linux-3.2.bin:iso8859-1");
+			final List<String> tagset = tt.getTagset();
+
+			final List<String> actual = new ArrayList<String>();
+			tt.setHandler(new IndexedTokenHandler<String>()
+			{
+				public void token(String aToken, String aPos, String aLemma)
+				{
+					throw new IllegalStateException("Not expected to be called");
+				}
+
+				public void token(String aToken, int aTag, CharSequence aLemma)
+				{
+					actual.add(aToken + " " + tagset.get(aTag) + " " + aLemma);
+				}
+			});
+			tt.process(asList("This", "is", "a", "test", "."));
+
+			assertEquals(asList(
+					"This DT this",
+					"is VBZ be",
+					"a DT a",
+					"test NN test",
+					". SENT ."), actual);
+		}
+		finally {
+			tt.destroy();
+		}
+	}
+
+	@Test
+	public
+	void testEnglishReplacementToken()
+	throws Exception
+	{
+		Assume.assumeTrue(System.getenv("TREETAGGER_HOME") != null);
+
+		TreeTaggerWrapper<String> tt = new TreeTaggerWrapper<String>();
+		try {
+			tt.setModel("english-par-linux-3.2.bin:iso8859-1");
+			tt.setReplacementToken("_");
+
+			final List<String> actual = new ArrayList<String>();
+			tt.setHandler(new TokenHandler<String>()
+			{
+				public void token(String aToken, String aPos, String aLemma)
+				{
+					actual.add(aToken);
+				}
+			});
+			List<String> input = asList("This", "is\n", "a", "\t", "test", ".");
+			tt.process(input);
+			assertEquals(input, actual);
+
+			actual.clear();
+			tt.process(input.iterator());
+			assertEquals(input, actual);
+		}
+		finally {
+			tt.destroy();
+		}
+	}
+
 	@Test
 	public 
 	void testBruteCharsUTF8()
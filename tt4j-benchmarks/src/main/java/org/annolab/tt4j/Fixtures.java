@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Deterministic data used by the benchmarks. The records have the format produced by the
+ * {@link FakeTreeTagger}.
+ *
+ * @author Richard Eckart de Castilho
+ */
+final
+class Fixtures
+{
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	static final String[] TAGS = { "NN", "NP", "CD", "SENT", "XY" };
+
+	private static final String[] WORDS = { "The", "quick", "brown", "fox", "jumps", "over",
+			"the", "lazy", "dog", "42", "times", "Gr\u00f6\u00dfe", "na\u00efve", "." };
+
+	private Fixtures()
+	{
+		// No instances
+	}
+
+	/**
+	 * Get a list of tokens. The same number of tokens always yields the same list.
+	 *
+	 * @param aCount the number of tokens.
+	 * @return the tokens.
+	 */
+	static
+	List<String> tokens(
+			final int aCount)
+	{
+		Random rnd = new Random(aCount);
+		List<String> tokens = new ArrayList<String>(aCount);
+		for (int i = 0; i < aCount; i++) {
+			tokens.add(WORDS[rnd.nextInt(WORDS.length)]);
+		}
+		return tokens;
+	}
+
+	/**
+	 * Append the output record the {@link FakeTreeTagger} produces for a token.
+	 *
+	 * @param aBuffer the buffer.
+	 * @param aToken the token.
+	 * @param aProbabilities whether TreeTagger runs with {@code -prob}.
+	 */
+	static
+	void record(
+			final StringBuilder aBuffer,
+			final String aToken,
+			final boolean aProbabilities)
+	{
+		String tag = FakeTreeTagger.tag(aToken);
+		aBuffer.append(aToken).append('\t');
+		if (aProbabilities) {
+			aBuffer.append(tag).append(' ').append(aToken.toLowerCase(Locale.US)).append(" 0.900000\t");
+			aBuffer.append("XY ").append(aToken.toLowerCase(Locale.US)).append(" 0.100000");
+		}
+		else {
+			aBuffer.append(tag).append('\t').append(aToken.toLowerCase(Locale.US));
+		}
+		aBuffer.append('\n');
+	}
+
+	/**
+	 * Get the output the fake tagger produces for the given tokens.
+	 *
+	 * @param aTokens the tokens.
+	 * @param aProbabilities whether TreeTagger runs with {@code -prob}.
+	 * @return the output in UTF-8.
+	 */
+	static
+	byte[] output(
+			final List<String> aTokens,
+			final boolean aProbabilities)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (String token : aTokens) {
+			record(sb, token, aProbabilities);
+		}
+		return sb.toString().getBytes(UTF_8);
+	}
+
+	/**
+	 * Create a big-endian TreeTagger 3.2 model file with a dictionary of the given size.
+	 *
+	 * @param aDictionarySize the number of tokens in the dictionary.
+	 * @return the model.
+	 */
+	static
+	byte[] model(
+			final int aDictionarySize)
+	{
+		List<String> lemmas = new ArrayList<String>(aDictionarySize);
+		List<String> tokens = new ArrayList<String>(aDictionarySize);
+		for (int i = 0; i < aDictionarySize; i++) {
+			lemmas.add("lemma" + i);
+			tokens.add("token" + i);
+		}
+		return ModelWriter.write(ByteOrder.BIG_ENDIAN, TreeTaggerModel.VERSION_3_2, UTF_8,
+				Arrays.asList(TAGS), lemmas, tokens);
+	}
+}
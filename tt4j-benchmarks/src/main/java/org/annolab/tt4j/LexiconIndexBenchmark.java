@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up tokens in the dictionary of a model using a {@link LexiconIndex} compared to a
+ * {@link HashSet}. Half of the tokens looked up are in the dictionary.
+ *
+ * @author Richard Eckart de Castilho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class LexiconIndexBenchmark
+{
+	@Param({ "200000" })
+	public int dictionarySize;
+
+	private List<String> queries;
+	private LexiconIndex index;
+	private Set<String> set;
+
+	@Setup
+	public
+	void setup()
+	{
+		List<String> tokens = new ArrayList<String>(dictionarySize);
+		queries = new ArrayList<String>();
+		for (int i = 0; i < dictionarySize; i++) {
+			tokens.add("token" + i);
+			if (i % 20 == 0) {
+				queries.add("token" + i);
+				queries.add("unknown" + i);
+			}
+		}
+		index = LexiconIndex.build(tokens, LexiconIndex.DEFAULT_VERIFICATION_BYTES);
+		set = new HashSet<String>(tokens);
+	}
+
+	@Benchmark
+	public
+	int lexiconIndex()
+	{
+		int known = 0;
+		for (String token : queries) {
+			if (index.contains(token)) {
+				known++;
+			}
+		}
+		return known;
+	}
+
+	@Benchmark
+	public
+	int hashSet()
+	{
+		int known = 0;
+		for (String token : queries) {
+			if (set.contains(token)) {
+				known++;
+			}
+		}
+		return known;
+	}
+
+	@Benchmark
+	public
+	LexiconIndex build()
+	{
+		return LexiconIndex.build(new ArrayList<String>(set),
+				LexiconIndex.DEFAULT_VERIFICATION_BYTES);
+	}
+}
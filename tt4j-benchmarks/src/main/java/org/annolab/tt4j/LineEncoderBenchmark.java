@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of tokens as done by the writer thread. The encoded bytes are discarded.
+ *
+ * @author Richard Eckart de Castilho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class LineEncoderBenchmark
+{
+	@Param({ "10000" })
+	public int tokens;
+
+	@Param({ "UTF-8", "ISO-8859-1" })
+	public String encoding;
+
+	private List<String> input;
+	private LineEncoder encoder;
+
+	@Setup
+	public
+	void setup()
+	{
+		input = Fixtures.tokens(tokens);
+		encoder = new LineEncoder(new OutputStream()
+		{
+			@Override
+			public void write(int aByte)
+			{
+				// Discard
+			}
+
+			@Override
+			public void write(byte[] aBuffer, int aOffset, int aLength)
+			{
+				// Discard
+			}
+		}, Charset.forName(encoding), 65536);
+	}
+
+	@Benchmark
+	public
+	void write()
+	throws IOException
+	{
+		for (String token : input) {
+			encoder.write(token);
+		}
+		encoder.flush();
+	}
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading a TreeTagger model file with {@link TreeTaggerModelReader}, either from a stream, from a
+ * stream into compact dictionaries, or by mapping the file. For the mapped file, the benchmarks access the dictionaries, which causes the
+ * strings to be located and one token to be decoded.
+ *
+ * @author Richard Eckart de Castilho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class ModelReaderBenchmark
+{
+	@Param({ "100000" })
+	public int dictionarySize;
+
+	@Param({ "false", "true" })
+	public boolean readDictionary;
+
+	private byte[] model;
+	private File file;
+
+	@Setup
+	public
+	void setup()
+	throws IOException
+	{
+		model = Fixtures.model(dictionarySize);
+		file = File.createTempFile("model", ".par");
+		OutputStream os = new FileOutputStream(file);
+		try {
+			os.write(model);
+		}
+		finally {
+			os.close();
+		}
+	}
+
+	@TearDown
+	public
+	void tearDown()
+	{
+		file.delete();
+	}
+
+	@Benchmark
+	public
+	TreeTaggerModel read()
+	throws IOException
+	{
+		TreeTaggerModelReader reader = new TreeTaggerModelReader();
+		reader.setReadDictionary(readDictionary);
+		return reader.read(new ByteArrayInputStream(model));
+	}
+
+	@Benchmark
+	public
+	TreeTaggerModel readCompact()
+	throws IOException
+	{
+		TreeTaggerModelReader reader = new TreeTaggerModelReader();
+		reader.setReadDictionary(readDictionary);
+		reader.setCompactDictionary(true);
+		return reader.read(new ByteArrayInputStream(model));
+	}
+
+	@Benchmark
+	public
+	Object readMapped()
+	throws IOException
+	{
+		TreeTaggerModelReader reader = new TreeTaggerModelReader();
+		reader.setReadDictionary(readDictionary);
+		TreeTaggerModel m = reader.read(file);
+		if (readDictionary) {
+			return m.getTokens().get(dictionarySize / 2);
+		}
+		return m.getTags();
+	}
+}
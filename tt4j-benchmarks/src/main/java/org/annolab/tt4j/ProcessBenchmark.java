@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End-to-end tagging with {@link TreeTaggerWrapper#process(java.util.Collection)} against the
+ * {@link FakeTreeTagger}. The process is started once in the setup, so the benchmark measures
+ * the communication with a running process.
+ *
+ * @author Richard Eckart de Castilho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public
+class ProcessBenchmark
+{
+	@Param({ "10", "10000" })
+	public int tokens;
+
+	@Param({ "false", "true" })
+	public boolean probabilities;
+
+	private List<String> input;
+	private File model;
+	private TreeTaggerWrapper<String> wrapper;
+	private Blackhole blackhole;
+
+	@Setup
+	public
+	void setup(
+			final Blackhole aBlackhole)
+	throws Exception
+	{
+		blackhole = aBlackhole;
+		input = Fixtures.tokens(tokens);
+
+		model = File.createTempFile("benchmark", ".par");
+		OutputStream out = new FileOutputStream(model);
+		try {
+			out.write(Fixtures.model(0));
+		}
+		finally {
+			out.close();
+		}
+
+		wrapper = new TreeTaggerWrapper<String>();
+		wrapper.setExecutableProvider(new FakeTreeTaggerResolver());
+		wrapper.setModel(new DefaultModel("benchmark", model, "utf-8"));
+		if (probabilities) {
+			wrapper.setProbabilityThreshold(0.1);
+		}
+		wrapper.setHandler(new ProbabilityHandler<String>()
+		{
+			public void token(String aToken, String aPos, String aLemma)
+			{
+				blackhole.consume(aPos);
+				blackhole.consume(aLemma);
+			}
+
+			public void probability(String aPos, String aLemma, double aProbability)
+			{
+				blackhole.consume(aProbability);
+			}
+		});
+
+		// Start the process
+		wrapper.process(input);
+	}
+
+	@TearDown
+	public
+	void tearDown()
+	{
+		wrapper.destroy();
+		model.delete();
+	}
+
+	@Benchmark
+	public
+	void process()
+	throws IOException, TreeTaggerException
+	{
+		wrapper.process(input);
+	}
+}
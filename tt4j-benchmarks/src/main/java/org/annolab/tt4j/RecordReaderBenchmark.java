@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of TreeTagger output records as done by the reader thread.
+ *
+ * @author Richard Eckart de Castilho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class RecordReaderBenchmark
+{
+	@Param({ "10000" })
+	public int tokens;
+
+	@Param({ "false", "true" })
+	public boolean probabilities;
+
+	private byte[] output;
+	private TagTable tags;
+
+	@Setup
+	public
+	void setup()
+	{
+		output = Fixtures.output(Fixtures.tokens(tokens), probabilities);
+		tags = new TagTable(Fixtures.UTF_8);
+		for (String tag : Fixtures.TAGS) {
+			tags.add(tag);
+		}
+	}
+
+	@Benchmark
+	public
+	void read(
+			final Blackhole aBlackhole)
+	throws IOException
+	{
+		RecordReader in = new RecordReader(new ByteArrayInputStream(output), Fixtures.UTF_8,
+				tags, null);
+		while (in.next()) {
+			int end = in.end();
+			int tab = in.indexOf((byte) '\t', in.start(), end);
+			aBlackhole.consume(in.decode(in.start(), tab));
+			if (probabilities) {
+				// Candidates: tag, lemma and probability separated by blanks
+				int from = tab + 1;
+				while (from < end) {
+					int to = in.indexOf((byte) '\t', from, end);
+					if (to < 0) {
+						to = end;
+					}
+					int blank1 = in.indexOf((byte) ' ', from, to);
+					int blank2 = in.indexOf((byte) ' ', blank1 + 1, to);
+					aBlackhole.consume(in.getTagIndex(from, blank1));
+					aBlackhole.consume(in.decode(blank1 + 1, blank2));
+					aBlackhole.consume(in.parseDouble(blank2 + 1, to));
+					from = to + 1;
+				}
+			}
+			else {
+				int tab2 = in.indexOf((byte) '\t', tab + 1, end);
+				aBlackhole.consume(in.getTagIndex(tab + 1, tab2));
+				aBlackhole.consume(in.decode(tab2 + 1, end));
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Richard Eckart de Castilho.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Richard Eckart de Castilho - initial API and implementation
+ ******************************************************************************/
+package org.annolab.tt4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Filtering of problematic tokens and token matching in strict mode.
+ *
+ * @author Richard Eckart de Castilho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class TokenFilterBenchmark
+{
+	@Param({ "10000" })
+	public int tokens;
+
+	@Param({ "utf-8", "iso8859-1" })
+	public String encoding;
+
+	private List<String> input;
+	private TreeTaggerWrapper<String> wrapper;
+
+	@Setup
+	public
+	void setup()
+	throws IOException
+	{
+		input = Fixtures.tokens(tokens);
+		// Every 100th token needs to be filtered
+		for (int i = 0; i < input.size(); i += 100) {
+			input.set(i, "line\nbreak");
+		}
+
+		wrapper = new TreeTaggerWrapper<String>();
+		wrapper.setModel(new DefaultModel("benchmark", new File("benchmark.par"), encoding));
+	}
+
+	@TearDown
+	public
+	void tearDown()
+	{
+		wrapper.destroy();
+	}
+
+	@Benchmark
+	public
+	void removeProblematicTokens(
+			final Blackhole aBlackhole)
+	throws IOException
+	{
+		Collection<String> filtered = wrapper.removeProblematicTokens(input);
+		for (String token : filtered) {
+			aBlackhole.consume(token);
+		}
+	}
+
+	@Benchmark
+	public
+	void matches(
+			final Blackhole aBlackhole)
+	{
+		for (String token : input) {
+			aBlackhole.consume(Util.matches(token, token));
+		}
+	}
+}